@@ -3,4 +3,43 @@ package Domineering.Mcts;
 public abstract class AI {
 
     public abstract Coordinate ai(char[][] board, Player player, String otherPlayer);
-}
\ No newline at end of file
+
+    // game is "<RoundID>;<GameID>", for AIs that keep something between the moves of a game
+    public Coordinate ai(char[][] board, Player player, String otherPlayer, String game) {
+        return ai(board, player, otherPlayer);
+    }
+
+    // answers all the boards of one message within budget milliseconds, in the same order;
+    // by default one after the other, each getting an equal share
+    public Coordinate[] ai(char[][][] boards, Player[] players, String[] otherPlayers, String[] games, long budget) {
+        Coordinate[] ans = new Coordinate[boards.length];
+        setMoveBudget(budget / boards.length);
+        for (int k = 0; k < boards.length; k++) {
+            ans[k] = ai(boards[k], players[k], otherPlayers[k], games[k]);
+        }
+        return ans;
+    }
+
+    // the same from the boards decoded by Client, by default turned back into char arrays
+    // with Board.chars: the filled cells come as 'F', not as the 'V' or 'H' of their owner,
+    // so an AI that needs the owners has to keep them itself
+    public Coordinate[] ai(Board[] boards, Player[] players, String[] otherPlayers, String[] games, long budget) {
+        char[][][] chars = new char[boards.length][][];
+        for (int k = 0; k < boards.length; k++) {
+            chars[k] = boards[k].chars();
+        }
+        return ai(chars, players, otherPlayers, games, budget);
+    }
+
+    // milliseconds the next moves may take
+    public void setMoveBudget(long millis) {
+    }
+
+    // called once the moves of a message are sent, to think while the opponents do;
+    // the next call of ai() ends it
+    public void ponder(Board[] boards, Player[] players, Coordinate[] moves, String[] games) {
+    }
+
+    public void stopPondering() {
+    }
+}
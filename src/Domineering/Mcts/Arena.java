@@ -0,0 +1,171 @@
+package Domineering.Mcts;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Offline self-play: two AIs play each other many times, in parallel, and the win rate
+// of the first one is printed with its 95% confidence interval.
+// Run with: java Domineering.Mcts.Arena [games] [ms per move] [parallel games] [log]
+// The games are appended to log if given, one per line, as BookBuilder reads them.
+public class Arena {
+    // the server's board, any size up to Board.MAX_WIDTH by Board.MAX_HEIGHT can be played
+    static final int WIDTH = 12;
+    static final int HEIGHT = 12;
+
+    static class Contender {
+        final String name;
+        // each parallel game needs its own instances
+        final Supplier<AI> factory;
+        // milliseconds per move
+        final long budget;
+
+        Contender(String name, Supplier<AI> factory, long budget) {
+            this.name = name;
+            this.factory = factory;
+            this.budget = budget;
+        }
+    }
+
+    final Contender a;
+    final Contender b;
+    final int workers;
+    final AtomicInteger winsA = new AtomicInteger();
+    final AtomicInteger winsAsV = new AtomicInteger();
+    final AtomicInteger played = new AtomicInteger();
+    PrintWriter log;
+
+    Arena(Contender a, Contender b, int workers) {
+        this.a = a;
+        this.b = b;
+        this.workers = workers;
+    }
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 100;
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        String log = args.length > 3 ? args[3] : null;
+
+        // change these to compare other settings
+        Contender a = new Contender("uct 1.41", () -> agent(new SearchConfig().exploration(1.41)), budget);
+        Contender b = new Contender("uct 0.7", () -> agent(new SearchConfig().exploration(0.7)), budget);
+        Arena arena = new Arena(a, b, workers);
+        if (log != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(log, true))) {
+                arena.log = out;
+                arena.play(games);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            arena.play(games);
+        }
+    }
+
+    // single threaded, the parallelism comes from the games
+    static MctAgent agent(SearchConfig config) {
+        MctAgent ans = new MctAgent(SearchMode.SEQUENTIAL, 1, SearchEngine.POOL_CAPACITY, config);
+        ans.gc = false;
+        return ans;
+    }
+
+    // a plays V in the even games and H in the odd ones
+    void play(int games) {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        ThreadLocal<AI[]> agents = ThreadLocal.withInitial(() -> new AI[]{a.factory.get(), b.factory.get()});
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>(games);
+        for (int k = 0; k < games; k++) {
+            int game = k;
+            futures.add(pool.submit(() -> {
+                AI[] ai = agents.get();
+                boolean aIsV = game % 2 == 0;
+                StringBuilder moves = new StringBuilder();
+                int winner = aIsV ? play(ai[0], a.budget, ai[1], b.budget, "arena;" + game, moves)
+                        : play(ai[1], b.budget, ai[0], a.budget, "arena;" + game, moves);
+                if (log != null) {
+                    synchronized (log) {
+                        log.println(WIDTH + "x" + HEIGHT + ", winner: " + (winner == 0 ? "V" : "H") + ", moves: " + moves);
+                    }
+                }
+                if ((winner == 0) == aIsV) {
+                    winsA.incrementAndGet();
+                    if (aIsV)
+                        winsAsV.incrementAndGet();
+                }
+                int done = played.incrementAndGet();
+                if (done % Math.max(1, games / 10) == 0 || done == games)
+                    report(System.nanoTime() - start);
+            }));
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private synchronized void report(long nanos) {
+        int n = played.get();
+        int w = winsA.get();
+        double[] ci = wilson(w, n);
+        System.out.printf("%d games: %s %.1f%% [%.1f%%, %.1f%%] vs %s (%d/%d as V), %.1f games/min%n",
+                n, a.name, 100.0 * w / n, 100 * ci[0], 100 * ci[1], b.name,
+                winsAsV.get(), (n + 1) / 2, n * 60e9 / nanos);
+    }
+
+    // 95% Wilson score interval of the win rate
+    static double[] wilson(int wins, int games) {
+        double z = 1.96;
+        double p = wins / (double) games;
+        double d = 1 + z * z / games;
+        double centre = (p + z * z / (2 * games)) / d;
+        double half = z * Math.sqrt(p * (1 - p) / games + z * z / (4.0 * games * games)) / d;
+        return new double[]{Math.max(0, centre - half), Math.min(1, centre + half)};
+    }
+
+    // returns 0 if V wins, 1 if H does; an invalid move loses
+    static int play(AI v, long vBudget, AI h, long hBudget, String game) {
+        return play(v, vBudget, h, hBudget, game, new StringBuilder());
+    }
+
+    // also appends the valid moves to moves
+    static int play(AI v, long vBudget, AI h, long hBudget, String game, StringBuilder moves) {
+        char[][] board = new char[WIDTH][HEIGHT];
+        for (char[] line : board) {
+            Arrays.fill(line, 'E');
+        }
+        long[] bits = Board.of(board).lines;
+        for (int turn = 0; ; turn = 1 - turn) {
+            if (!Mct.hasMoves(bits, turn))
+                return 1 - turn;
+            AI ai = turn == 0 ? v : h;
+            ai.setMoveBudget(turn == 0 ? vBudget : hBudget);
+            Coordinate c = ai.ai(board, turn == 0 ? Player.V : Player.H, "arena", game);
+            int x = c.getX();
+            int y = c.getY();
+            int x2 = x + turn;
+            int y2 = y + 1 - turn;
+            if (x < 0 || y < 0 || x2 >= WIDTH || y2 >= HEIGHT || board[x][y] != 'E' || board[x2][y2] != 'E')
+                return 1 - turn;
+            board[x][y] = board[x2][y2] = turn == 0 ? 'V' : 'H';
+            moves.append(c);
+            Mct.apply(RolloutPolicy.move(x, y), turn, bits);
+        }
+    }
+}
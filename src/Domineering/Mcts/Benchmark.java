@@ -0,0 +1,195 @@
+package Domineering.Mcts;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+// Micro benchmarks of the search, run with: java Domineering.Mcts.Benchmark [filter]
+// Only the benchmarks whose name contains filter are run, each in a JVM of its own
+// started with the same class path and flags, so that none runs on the JIT profile,
+// heap or threads another one left. Each one is warmed up for WARMUP ms, then
+// measured for MEASURE ms, and prints the time per operation.
+// The positions are a fixed corpus: random games replayed from a fixed seed and cut
+// in the opening, midgame and endgame.
+public class Benchmark {
+    static final long WARMUP = 1000;
+    static final long MEASURE = 2000;
+    static final long SEED = 42;
+    static final int[] SIZES = {8, 12};
+    static final String[] PHASES = {"opening", "midgame", "endgame"};
+    // share of the cells filled in each phase
+    static final double[] FILLED = {0.1, 0.4, 0.65};
+    // rollouts per leaf of the answer benchmarks (see SearchConfig.batch)
+    static final int[] BATCHES = {1, 4, 16};
+    // equivalence parameter of the answer rave benchmarks
+    static final int RAVE = 300;
+    // plies of the truncated rollout benchmark
+    static final int DEPTH = 10;
+    // first argument of a forked JVM, followed by the exact name of its benchmark
+    static final String FORKED = "-forked";
+    // keeps the results alive so the JIT can't drop the benchmarked code
+    static volatile long sink;
+    // answers of the measured run that didn't come from a full search (proven root,
+    // solver), reported apart from the playouts
+    static long exits;
+
+    interface Benchmarks {
+        // op builds the benchmark, only in the JVM that runs it
+        void add(String name, Supplier<Op> op) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals(FORKED)) {
+            all((name, op) -> {
+                if (name.equals(args[1]))
+                    run(name, op.get());
+            });
+            return;
+        }
+        String filter = args.length > 0 ? args[0] : "";
+        all((name, op) -> {
+            if (name.contains(filter))
+                fork(name);
+        });
+    }
+
+    static void all(Benchmarks b) throws Exception {
+        for (int n : SIZES) {
+            for (int p = 0; p < PHASES.length; p++) {
+                long[] board = position(n, FILLED[p]);
+                String suffix = " " + n + "x" + n + " " + PHASES[p];
+                for (Playout playout : Playout.values()) {
+                    b.add("rollout " + playout + suffix, () -> rollout(n, board, new SearchConfig().playout(playout)));
+                }
+                b.add("rollout truncated " + DEPTH + suffix, () -> rollout(n, board, new SearchConfig().depth(DEPTH)));
+                b.add("evaluateMove" + suffix, () -> evaluateMove(n, board));
+                b.add("getMoves" + suffix, () -> getMoves(board));
+                b.add("select+expand" + suffix, () -> selectExpand(board));
+                // endgame(0): the answers time the search, not the EndgameSolver
+                for (int k : BATCHES) {
+                    b.add((k == 1 ? "answer" : "answer batch " + k) + suffix,
+                            () -> answer(n, board, new SearchConfig().endgame(0).batch(k)));
+                }
+                b.add("answer rave" + suffix, () -> answer(n, board, new SearchConfig().endgame(0).rave(RAVE)));
+                b.add("answer full width" + suffix,
+                        () -> answer(n, board, new SearchConfig().endgame(0).widening(0, 0, 0)));
+            }
+        }
+    }
+
+    // runs the benchmark name in a new JVM, which prints its result
+    static void fork(String name) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Benchmark.class.getName());
+        command.add(FORKED);
+        command.add(name);
+        int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (status != 0)
+            System.out.printf("%-40s %12s%n", name, "exited with " + status);
+    }
+
+    // board after random moves filling about filled of the cells, the same for every run
+    static long[] position(int n, double filled) {
+        Random r = new Random(SEED);
+        long[] board = new Board(n, n).lines;
+        for (int player = 0, cells = 0; cells < filled * n * n; player = 1 - player, cells += 2) {
+            short[] moves = Mct.getMoves(board, player);
+            if (moves.length == 0)
+                break;
+            Mct.apply(moves[r.nextInt(moves.length)], player, board);
+        }
+        return board;
+    }
+
+    interface Op {
+        // one operation, returns how many it actually did
+        long run();
+    }
+
+    static void run(String name, Op op) {
+        measure(op, WARMUP);
+        exits = 0;
+        long start = System.nanoTime();
+        long ops = measure(op, MEASURE);
+        long nanos = System.nanoTime() - start;
+        if (ops == 0)
+            System.out.printf("%-40s %12s%n", name, "no playouts");
+        else
+            System.out.printf("%-40s %12.1f ns/op %14.0f ops/s", name, nanos / (double) ops, ops * 1e9 / nanos);
+        System.out.println(exits == 0 ? "" : ", " + exits + " answers proven or solved");
+    }
+
+    private static long measure(Op op, long millis) {
+        long end = System.nanoTime() + millis * 1000000;
+        long ops = 0;
+        while (System.nanoTime() < end) {
+            ops += op.run();
+        }
+        return ops;
+    }
+
+    static Op rollout(int n, long[] board, SearchConfig config) {
+        RolloutPolicy rp = new RolloutPolicy(config);
+        long[] cb = new long[n];
+        return () -> {
+            Mct.copy(board, cb);
+            sink += rp.rollout(cb, 0);
+            return 1;
+        };
+    }
+
+    static Op evaluateMove(int n, long[] board) {
+        RolloutPolicy rp = new RolloutPolicy();
+        return () -> {
+            sink += rp.evaluateMove(board, Player.V);
+            return 1;
+        };
+    }
+
+    static Op getMoves(long[] board) {
+        return () -> {
+            sink += Mct.getMoves(board, 0).length;
+            return 1;
+        };
+    }
+
+    // tree walk without the rollout, the tree is rebuilt when it gets large
+    static Op selectExpand(long[] board) {
+        Random r = new Random(SEED);
+        long[] cb = new long[board.length];
+        ArrayList<Mct> path = new ArrayList<>();
+        Mct[] root = {new Mct(board, 0)};
+        SearchConfig config = new SearchConfig();
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        return () -> {
+            if (root[0].games >= 100000)
+                root[0] = new Mct(board, 0);
+            Mct.copy(board, cb);
+            path.clear();
+            root[0].select(cb, null, config, path, evaluator);
+            Mct.backPropagate(path, r.nextInt(2));
+            return 1;
+        };
+    }
+
+    // playouts of a whole SearchEngine move, counted per playout; the answers that
+    // didn't search to the end are counted in exits
+    static Op answer(int n, long[] board, SearchConfig config) {
+        SearchEngine engine = new SearchEngine(SearchMode.SEQUENTIAL, 1, SearchEngine.POOL_CAPACITY,
+                config, SearchEngine.sessions());
+        return () -> {
+            engine.answer(new Board(board.clone(), n), 0);
+            if (!"search".equals(engine.lastStats.source))
+                ++exits;
+            return engine.lastStats.playouts;
+        };
+    }
+}
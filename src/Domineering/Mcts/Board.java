@@ -0,0 +1,143 @@
+package Domineering.Mcts;
+
+import java.util.Arrays;
+
+// A board of width columns and height rows, packed in one long per column: bit j of
+// lines[i] is set iff the cell (i, j) is empty, i being x and j being y as in Client.
+// The search only works on the lines, which need no size since the cells off the board
+// are never empty. Their bits serve as walls, so a board has at most MAX_HEIGHT rows.
+// Moves pack the line in the bits above the 6 of the row (RolloutPolicy.move) and
+// Zobrist keys cells of 64 lines, so a board has at most MAX_WIDTH columns; the same
+// bound as the rows lets Symmetry transpose any board.
+public class Board {
+    static final int MAX_HEIGHT = 63;
+    static final int MAX_WIDTH = 63;
+    // bits at the even positions
+    static final long EVEN = 0x5555555555555555L;
+    final int width;
+    final int height;
+    final long[] lines;
+
+    // an empty board
+    Board(int width, int height) {
+        this(new long[width], height);
+        Arrays.fill(lines, (1L << height) - 1);
+    }
+
+    Board(long[] lines, int height) {
+        if (height < 1 || height > MAX_HEIGHT)
+            throw new IllegalArgumentException("rows must be in 1.." + MAX_HEIGHT + ": " + height);
+        if (lines.length > MAX_WIDTH)
+            throw new IllegalArgumentException("columns must be in 0.." + MAX_WIDTH + ": " + lines.length);
+        this.width = lines.length;
+        this.height = height;
+        this.lines = lines;
+    }
+
+    // board[x][y] is 'E' for the empty cells
+    static Board of(char[][] board) {
+        Board ans = new Board(new long[board.length], board.length == 0 ? 1 : board[0].length);
+        for (int i = 0; i < board.length; i++) {
+            for (int j = 0; j < board[i].length; j++) {
+                if (board[i][j] == 'E') set(ans.lines, i, j);
+            }
+        }
+        return ans;
+    }
+
+    // filled[x][y] is true for the filled cells
+    static Board of(boolean[][] filled) {
+        Board ans = new Board(new long[filled.length], filled.length == 0 ? 1 : filled[0].length);
+        for (int i = 0; i < filled.length; i++) {
+            for (int j = 0; j < filled[i].length; j++) {
+                if (!filled[i][j]) set(ans.lines, i, j);
+            }
+        }
+        return ans;
+    }
+
+    // Decodes the board of a server request, line[from..to), see Client: each digit d
+    // codes two cells of a row, read from the top left, the left one d / 3 and the right
+    // one d % 3, 0 being empty. The board is square, of side sqrt(2 * digits).
+    static Board decode(CharSequence line, int from, int to) {
+        int n = (int) Math.round(Math.sqrt(2 * (to - from)));
+        Board ans = new Board(new long[n], n);
+        long[] lines = ans.lines;
+        // a row has an even number of cells, so a digit never spans two rows
+        for (int k = from, x = 0, y = 0; k < to; k++) {
+            int d = line.charAt(k) - '0';
+            if (d / 3 == 0)
+                lines[x] |= 1L << y;
+            if (d % 3 == 0)
+                lines[x + 1] |= 1L << y;
+            x += 2;
+            if (x >= n) {
+                x = 0;
+                ++y;
+            }
+        }
+        return ans;
+    }
+
+    // board[x][y], 'E' for the empty cells and 'F' for the filled ones: the lines don't
+    // keep who filled a cell, so unlike the wire format this never gives 'V' or 'H'
+    char[][] chars() {
+        char[][] ans = new char[width][height];
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                ans[i][j] = check(lines, i, j) ? 'E' : 'F';
+            }
+        }
+        return ans;
+    }
+
+    int cells() {
+        return width * height;
+    }
+
+    int empty() {
+        return empty(lines);
+    }
+
+    static int empty(long[] lines) {
+        int ans = 0;
+        for (long line : lines) {
+            ans += Long.bitCount(line);
+        }
+        return ans;
+    }
+
+    static void set(long[] lines, int i, int j) {
+        lines[i] |= 1L << j;
+    }
+
+    static void unset(long[] lines, int i, int j) {
+        lines[i] &= ~(1L << j);
+    }
+
+    static boolean check(long[] lines, int i, int j) {
+        return (lines[i] & (1L << j)) != 0;
+    }
+
+    // Counts the non-overlapping moves in a line whose bit j is set iff the moves
+    // at j and j-1 overlap, like the greedy scan from the lowest bit would: every run
+    // of m set bits takes ceil(m/2) of them, the ones at an even offset from its start.
+    static int count(long line) {
+        long starts = line & ~(line << 1);
+        // adding its lowest bit clears a run, so this keeps the runs starting at odd bits
+        long odd = line & ~(line + (starts & ~EVEN));
+        return Long.bitCount(((line & ~odd) & EVEN) | (odd & ~EVEN));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ans = new StringBuilder();
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                ans.append(check(lines, i, j) ? 'E' : '.');
+            }
+            ans.append('\n');
+        }
+        return ans.toString();
+    }
+}
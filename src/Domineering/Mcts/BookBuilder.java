@@ -0,0 +1,113 @@
+package Domineering.Mcts;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Extends an OpeningBook from self-play logs, run with:
+// java Domineering.Mcts.BookBuilder <book> [ms per position] [plies] [log]...
+// The positions of the first plies of the logged games that the book doesn't have yet
+// are searched for ms each, and so are the empty boards of SIZES. A log line is either
+// one of Arena's, "<width>x<height>, winner: <V|H>, moves: (x,y)(x,y)...", or one of the
+// server's game list (see Client.viewGames), whose board is 12x12.
+public class BookBuilder {
+    static final int[] SIZES = {8, 12};
+    static final int SERVER_SIZE = 12;
+
+    final TreeMap<Long, int[]> entries = new TreeMap<>();
+    // positions to search, in the order they were met
+    final List<long[]> boards = new ArrayList<>();
+    final List<Integer> players = new ArrayList<>();
+    final Set<Long> queued = new HashSet<>();
+
+    public static void main(String[] args) throws IOException {
+        String path = args[0];
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 10000;
+        int plies = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        BookBuilder builder = new BookBuilder();
+        if (new File(path).exists()) {
+            OpeningBook book = OpeningBook.open(path);
+            for (int e = 0; e < book.size; e++) {
+                builder.entries.put(book.key(e), new int[]{book.move(e), book.games(e), book.wins(e)});
+            }
+        }
+        for (int n : SIZES) {
+            builder.queue(new Board(n, n).lines, 0);
+        }
+        for (int k = 3; k < args.length; k++) {
+            try (BufferedReader in = new BufferedReader(new FileReader(args[k]))) {
+                for (String line; (line = in.readLine()) != null; ) {
+                    builder.replay(line, plies);
+                }
+            }
+        }
+        builder.search(path, budget);
+    }
+
+    // queues the positions before the first plies moves of the game of a log line
+    void replay(String line, int plies) {
+        String[] parts = line.split("moves: ");
+        if (parts.length < 2)
+            return;
+        int width = SERVER_SIZE;
+        int height = SERVER_SIZE;
+        if (parts[0].matches("\\d+x\\d+,.*")) {
+            String[] size = parts[0].substring(0, parts[0].indexOf(',')).split("x");
+            width = Integer.parseInt(size[0]);
+            height = Integer.parseInt(size[1]);
+        }
+        long[] board = new Board(width, height).lines;
+        String[] moves = parts[1].split("\\)\\(|\\(|\\)");
+        int player = 0;
+        // the first entry is empty, like in Client.printGame
+        for (int m = 1; m < moves.length && m <= plies; m++, player = 1 - player) {
+            Coordinate c = new Coordinate(moves[m]);
+            int x = c.getX();
+            int y = c.getY();
+            if (x + player >= width || y + 1 - player >= height
+                    || !Board.check(board, x, y) || !Board.check(board, x + player, y + 1 - player))
+                return;
+            queue(board, player);
+            Mct.apply(RolloutPolicy.move(x, y), player, board);
+        }
+    }
+
+    private void queue(long[] board, int player) {
+        long key = OpeningBook.key(board, player);
+        if (!entries.containsKey(key) && queued.add(key)) {
+            boards.add(board.clone());
+            players.add(player);
+        }
+    }
+
+    // searches the queued positions, saving the book after each one
+    void search(String path, long budget) throws IOException {
+        SearchConfig config = new SearchConfig();
+        RolloutPolicy rp = new RolloutPolicy(config);
+        TranspositionTable tt = new TranspositionTable(SearchEngine.TT_SIZE);
+        for (int k = 0; k < boards.size(); k++) {
+            long[] board = boards.get(k);
+            int player = players.get(k);
+            Mct root = new Mct(board, player);
+            if (root.choices.length == 0)
+                continue;
+            tt.clear();
+            root.search(board, rp, tt, config, new SearchClock(budget * 1000000));
+            int best = root.bestIndex();
+            int a = root.choices[best];
+            Mct child = root.children.get(best);
+            Symmetry canonical = new Symmetry(board, player);
+            entries.put(canonical.key, new int[]{canonical.toCanonical(a, player), child.games, child.wins});
+            OpeningBook.write(path, entries);
+            System.out.printf("%d/%d: %s plays (%d,%d), %d/%d playouts won%n", k + 1, boards.size(),
+                    player == 0 ? "V" : "H", RolloutPolicy.moveX(a), RolloutPolicy.moveY(a), child.wins, child.games);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package Domineering.Mcts;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+// Checks of properties the agent relies on that no single game shows, run with:
+// java Domineering.Mcts.Checks [filter]
+// Each check whose name contains filter prints ok or what went wrong; the exit status
+// is the number of failures.
+public class Checks {
+
+    interface Check {
+        // null if the property holds, else what went wrong
+        String run() throws Exception;
+    }
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        int failed = 0;
+        failed += run(filter, "sessions", Checks::sessions);
+        failed += run(filter, "allocation", Checks::allocation);
+        failed += run(filter, "parser", Checks::parser);
+        System.exit(failed);
+    }
+
+    static int run(String filter, String name, Check check) {
+        if (!name.contains(filter))
+            return 0;
+        String error;
+        try {
+            error = check.run();
+        } catch (Exception | AssertionError e) {
+            error = e.toString();
+        }
+        System.out.printf("%-20s %s%n", name, error == null ? "ok" : "FAILED: " + error);
+        return error == null ? 0 : 1;
+    }
+
+    // The lane engines of MctAgent share the sessions of the games but not their thread
+    // counts: with Main's ROOT_PARALLEL on 2 threads, a game searched in a message of 2
+    // boards has 1 root, then 2 roots are looked for when its message has 1 board.
+    // The messages alternate between 2 and 1 boards, pondering in between.
+    static String sessions() throws InterruptedException {
+        MctAgent agent = new MctAgent(SearchMode.ROOT_PARALLEL, 2);
+        agent.gc = false;
+        Board[] boards = {new Board(8, 8), new Board(8, 8)};
+        String[] games = {"1;0", "1;1"};
+        for (int round = 0; round < 6; round++) {
+            int n = round % 2 == 0 ? 2 : 1;
+            Board[] asked = Arrays.copyOf(boards, n);
+            Player[] players = new Player[n];
+            Arrays.fill(players, Player.V);
+            String[] others = new String[n];
+            Arrays.fill(others, "checks");
+            Coordinate[] moves = agent.ai(asked, players, others, Arrays.copyOf(games, n), 100);
+            agent.ponder(asked, players, moves, Arrays.copyOf(games, n));
+            Thread.sleep(50);
+            for (int b = 0; b < n; b++) {
+                long[] lines = boards[b].lines.clone();
+                if (!Mct.legal(lines, RolloutPolicy.move(moves[b].getX(), moves[b].getY()), 0))
+                    return "illegal move " + moves[b] + " in game " + games[b];
+                Mct.apply(RolloutPolicy.move(moves[b].getX(), moves[b].getY()), 0, lines);
+                short[] replies = Mct.getMoves(lines, 1);
+                if (replies.length == 0 || !Mct.hasMoves(lines, 0)) {
+                    agent.stopPondering();
+                    return null;
+                }
+                Mct.apply(replies[0], 1, lines);
+                boards[b] = new Board(lines, boards[b].height);
+            }
+        }
+        agent.stopPondering();
+        return null;
+    }
+
+    // A rollout doesn't touch the heap, whatever its playout: once warm, the bytes the
+    // thread allocates over many rollouts on 12x12 stay below one per rollout, a margin
+    // for what reading the counter costs. Also with RAVE recording the moves played and
+    // with truncated rollouts.
+    static String allocation() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return "this JVM doesn't count allocated bytes";
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long id = Thread.currentThread().getId();
+        long[] board = new Board(12, 12).lines;
+        int rollouts = 2000;
+        for (Playout playout : Playout.values()) {
+            for (int depth : new int[]{0, 10}) {
+                for (boolean record : new boolean[]{false, true}) {
+                    RolloutPolicy rp = new RolloutPolicy(new SearchConfig().playout(playout).depth(depth));
+                    rp.record = record;
+                    rp.rollouts(board, 0, 10000);
+                    long before = threads.getThreadAllocatedBytes(id);
+                    int wins = rp.rollouts(board, 0, rollouts);
+                    long bytes = threads.getThreadAllocatedBytes(id) - before;
+                    if (bytes >= rollouts)
+                        return bytes + " bytes over " + rollouts + " rollouts (" + wins + " won by V), "
+                                + playout + ", depth " + depth + (record ? ", recording" : "");
+                }
+            }
+        }
+        return null;
+    }
+
+    // Board.decode against the parser of the baseline Client, readBoard below, which only
+    // reads 12x12 boards: half of the random boards are 12x12 and decode to the same
+    // empty cells as readBoard gives, and back to the same chars but for the owners of
+    // the filled cells. The others are of any even side up to 62, checked against the
+    // owners FakeServer.encode wrote, so the encoder round-trips as well. A board is
+    // decoded from the middle of a message, as Client does.
+    static String parser() {
+        Random rand = new Random(19);
+        for (int t = 0; t < 20000; t++) {
+            int n = t % 2 == 0 ? 12 : 2 + 2 * rand.nextInt(31);
+            int[][] owner = new int[n][n];
+            for (int[] column : owner) {
+                for (int y = 0; y < n; y++) {
+                    column[y] = rand.nextInt(3);
+                }
+            }
+            String board = FakeServer.encode(owner);
+            String message = "V;1;" + t + ";other;" + board + "/H;1;0;other;00";
+            int from = message.indexOf(board);
+            Board decoded = Board.decode(message, from, from + board.length());
+            if (decoded.width != n || decoded.height != n)
+                return "decoded " + decoded.width + "x" + decoded.height + " from " + board;
+            char[][] old = n == 12 ? readBoard(board) : null;
+            char[][] chars = decoded.chars();
+            for (int x = 0; x < n; x++) {
+                for (int y = 0; y < n; y++) {
+                    boolean empty = Board.check(decoded.lines, x, y);
+                    if (empty != (owner[x][y] == 0))
+                        return "cell (" + x + "," + y + ") of " + board + " decoded wrong";
+                    if (old != null && empty != (old[x][y] == 'E'))
+                        return "readBoard and decode differ at (" + x + "," + y + ") of " + board;
+                    if (old != null && chars[x][y] != (old[x][y] == 'E' ? 'E' : 'F'))
+                        return "chars differ at (" + x + "," + y + ") of " + board;
+                }
+            }
+        }
+        return null;
+    }
+
+    // The parser of the baseline Client, unchanged but for being static, to check
+    // Board.decode against. It never writes 'V' in the left cell of a digit, currentChar
+    // / 3 being taken on the char rather than on its digit, but the empty cells are
+    // right and are all the search reads.
+    /*
+     * Returns the board as a two dimensional array. The first index is the
+     * horizontal direction, the second is the vertical. The upper left corner is
+     * (0, 0)
+     */
+    static char[][] readBoard(String line) {
+        char[][] board = new char[12][12];
+
+        for (int i = 0; i < line.length(); i++) {
+            char currentChar = line.charAt(i);
+            if ((currentChar - '0') % 3 == 0) {
+                board[(i * 2 + 1) % 12][(i * 2 + 1) / 12] = 'E';
+            } else if (currentChar % 3 == 1) {
+                board[(i * 2 + 1) % 12][(i * 2 + 1) / 12] = 'V';
+            } else {
+                board[(i * 2 + 1) % 12][(i * 2 + 1) / 12] = 'H';
+            }
+
+            if ((currentChar - '0') / 3 == 0) {
+                board[(i * 2) % 12][(i * 2) / 12] = 'E';
+            } else if (currentChar / 3 == 1) {
+                board[(i * 2) % 12][(i * 2) / 12] = 'V';
+            } else {
+                board[(i * 2) % 12][(i * 2) / 12] = 'H';
+            }
+        }
+
+        return board;
+    }
+}
@@ -1,10 +1,16 @@
 package Domineering.Mcts;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 
 /*
  * You have to implement an AI for Domineering(https://en.wikipedia.org/wiki/Domineering)
@@ -92,14 +98,32 @@ public class Client implements Runnable { // Only implements Runnable for testin
     private static final int SCOREPORT = 1339; // Just sends the score board without any input needed
     private static final String IP_OF_JS = "79.195.232.49"; // FIXME: Change me to the correct IP
     private final String NAME;
-    private BufferedReader bR;
-    private PrintWriter pW;
+    private final String host;
+    private final int port;
+    // The game connection is non-blocking: the thread of run() waits on the selector
+    // while the AI ponders on its own threads, see AI.ponder.
+    private SocketChannel channel;
+    private Selector selector;
+    // bytes received and not yet read as lines
+    private final ByteBuffer in = ByteBuffer.allocate(1 << 16);
+    private final StringBuilder partial = new StringBuilder(1024);
     private AI ai;
+    private final TimeManager time = new TimeManager();
+    // the response to a message, and its bytes as written
+    private final StringBuilder response = new StringBuilder(256);
+    private ByteBuffer out = ByteBuffer.allocate(256);
 
     public Client(AI ai, String name) throws IOException {
+        this(ai, name, IP_OF_JS, GAMEPORT);
+    }
+
+    // to play another server, e.g. a FakeServer
+    public Client(AI ai, String name, String host, int port) throws IOException {
         NAME = name;
-        connect();
+        this.host = host;
+        this.port = port;
         this.ai = ai;
+        connect();
     }
 
     /*
@@ -160,11 +184,22 @@ public class Client implements Runnable { // Only implements Runnable for testin
     }
 
     private void connect() throws IOException {
-        Socket socket = new Socket(IP_OF_JS, GAMEPORT);
-        bR = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        pW = new PrintWriter(socket.getOutputStream(), true);
-        pW.println(NAME);
-        String firstMessage = bR.readLine();
+        if (channel != null) {
+            channel.close();
+            selector.close();
+        }
+        in.clear();
+        partial.setLength(0);
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        long sent = System.nanoTime();
+        send(NAME);
+        String firstMessage;
+        while ((firstMessage = nextLine()) == null) {
+            if (channel.read(in) == -1)
+                throw new EOFException();
+        }
+        time.handshake(System.nanoTime() - sent);
         if ("Welcome".equals(firstMessage)) {
             System.out.println("Connected");
         } else {
@@ -172,8 +207,49 @@ public class Client implements Runnable { // Only implements Runnable for testin
             System.out.println("Message: " + firstMessage);
             throw new IllegalStateException();
         }
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
     }
 
+    // the next complete line received, without its terminator, null if there is none yet
+    private String nextLine() {
+        in.flip();
+        try {
+            while (in.hasRemaining()) {
+                char c = (char) (in.get() & 0xFF);
+                if (c == '\n') {
+                    int n = partial.length();
+                    String ans = partial.substring(0, n > 0 && partial.charAt(n - 1) == '\r' ? n - 1 : n);
+                    partial.setLength(0);
+                    return ans;
+                }
+                partial.append(c);
+            }
+            return null;
+        } finally {
+            in.compact();
+        }
+    }
+
+    // the protocol is ASCII, so a char is a byte
+    private void send(CharSequence message) throws IOException {
+        if (out.capacity() < message.length() + 1)
+            out = ByteBuffer.allocate(2 * (message.length() + 1));
+        out.clear();
+        for (int k = 0; k < message.length(); k++) {
+            out.put((byte) message.charAt(k));
+        }
+        out.put((byte) '\n');
+        out.flip();
+        // a few hundred bytes always fit in the socket buffer, so this hardly ever spins
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    // Reconnecting happens on this thread only, so it never holds up a ponder: the
+    // trees the AI keeps warming are still there when the server asks again.
     public void run() {
         boolean reconnectedLately = false;
 
@@ -183,12 +259,17 @@ public class Client implements Runnable { // Only implements Runnable for testin
 
             try {
 
-                line = bR.readLine();
-                //System.out.println(line);
+                line = nextLine();
                 if (line == null) {
-                    connect();
-                } else if ("Ping".equals(line)) {
-                    pW.println("Pong");
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    if (channel.read(in) == -1)
+                        connect();
+                    continue;
+                }
+                //System.out.println(line);
+                if ("Ping".equals(line)) {
+                    send("Pong");
                 } else {
                     respond(line);
                 }
@@ -201,6 +282,7 @@ public class Client implements Runnable { // Only implements Runnable for testin
                 }
                 if (reconnectedLately) {
                     System.out.println("Conection failed twice in a row, shutting down");
+                    ai.stopPondering();
                     return;
                 } else {
                     System.out.println("Some error occured, trying to reconnect");
@@ -211,71 +293,58 @@ public class Client implements Runnable { // Only implements Runnable for testin
                     connect();
                 } catch (IOException e1) {
                     System.out.println("Reconnecting also failed shutting down");
+                    ai.stopPondering();
                     return;
                 }
             }
         }
     }
 
-    private void respond(String line) {
+    // One pass over the message: the fields of each request are found by their
+    // separators and its board is decoded straight into a bitboard. That still allocates
+    // per message: the game and opponent strings, which the AI keys its sessions on, one
+    // Board per request and the arrays handed to the AI, which keeps them to ponder on.
+    // Only the response is written from buffers reused across messages.
+    private void respond(String line) throws IOException {
         if (line == null) {
             System.out.println("null");
             return;
 
         }
-        String[] requests = line.split("/");
-        StringBuilder response = new StringBuilder();
-        for (String request : requests) {
-            String[] parts = request.split(";");
-            Player pl;
-            if (parts[0].equals("H")) {
-                pl = Player.H;
-            } else {
-                pl = Player.V;
-            }
-
-            char[][] board = readBoard(parts[4]);
-
-            Coordinate move = ai.ai(board, pl, parts[3]); // Calling your code
-
-            if (response.toString().equals("")) {
-                response.append(parts[1]).append(";").append(parts[2]).append(";").append(move);
-            } else {
-                response.append("/").append(parts[1]).append(";").append(parts[2]).append(";").append(move);
-            }
+        int count = 1;
+        for (int i = line.indexOf('/'); i != -1; i = line.indexOf('/', i + 1)) {
+            ++count;
+        }
+        Board[] boards = new Board[count];
+        Player[] players = new Player[count];
+        String[] otherPlayers = new String[count];
+        String[] games = new String[count];
+        for (int k = 0, start = 0; k < count; k++) {
+            int end = line.indexOf('/', start);
+            if (end == -1)
+                end = line.length();
+            // <PlayerMode>;<RoundID>;<GameID>;<NameOfOtherPlayer>;<GameBoard>
+            int round = line.indexOf(';', start) + 1;
+            int other = line.indexOf(';', line.indexOf(';', round) + 1) + 1;
+            int board = line.indexOf(';', other) + 1;
+            players[k] = line.charAt(start) == 'H' ? Player.H : Player.V;
+            games[k] = line.substring(round, other - 1);
+            otherPlayers[k] = line.substring(other, board - 1);
+            boards[k] = Board.decode(line, board, end);
+            start = end + 1;
         }
 
-        pW.println(response);
-    }
-
-    /*
-     * Returns the board as a two dimensional array. The first index is the
-     * horizontal direction, the second is the vertical. The upper left corner is
-     * (0, 0)
-     */
-    private char[][] readBoard(String line) {
-        char[][] board = new char[12][12];
-
-        for (int i = 0; i < line.length(); i++) {
-            char currentChar = line.charAt(i);
-            if ((currentChar - '0') % 3 == 0) {
-                board[(i * 2 + 1) % 12][(i * 2 + 1) / 12] = 'E';
-            } else if (currentChar % 3 == 1) {
-                board[(i * 2 + 1) % 12][(i * 2 + 1) / 12] = 'V';
-            } else {
-                board[(i * 2 + 1) % 12][(i * 2 + 1) / 12] = 'H';
-            }
+        Coordinate[] moves = ai.ai(boards, players, otherPlayers, games, time.messageBudget(count)); // Calling your code
 
-            if ((currentChar - '0') / 3 == 0) {
-                board[(i * 2) % 12][(i * 2) / 12] = 'E';
-            } else if (currentChar / 3 == 1) {
-                board[(i * 2) % 12][(i * 2) / 12] = 'V';
-            } else {
-                board[(i * 2) % 12][(i * 2) / 12] = 'H';
-            }
+        // <RoundID>;<GameID>;(x,y) separated by "/", written from reused buffers
+        response.setLength(0);
+        for (int k = 0; k < count; k++) {
+            if (k > 0)
+                response.append('/');
+            response.append(games[k]).append(";(").append(moves[k].getX()).append(',').append(moves[k].getY()).append(')');
         }
-
-        return board;
+        send(response);
+        ai.ponder(boards, players, moves, games);
     }
 
 
@@ -0,0 +1,232 @@
+package Domineering.Mcts;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Search tree node that several threads can update without a lock (tree parallelism).
+public class ConcurrentMct {
+    // games added along the selected path while a playout is in flight
+    static final int VIRTUAL_LOSS = 1;
+    private static final AtomicLongFieldUpdater<ConcurrentMct> STATS =
+            AtomicLongFieldUpdater.newUpdater(ConcurrentMct.class, "stats");
+    private static final AtomicIntegerFieldUpdater<ConcurrentMct> EXPANDED =
+            AtomicIntegerFieldUpdater.newUpdater(ConcurrentMct.class, "expandedMoves");
+
+    // null for the root, also once the node is promoted to root by a SearchSession
+    ConcurrentMct parent;
+    // 0: Vertical
+    // 1: Horizental
+    final int nextToMove;
+
+    // packed with RolloutPolicy.move, NO_MOVE for the root
+    final short action;
+    // shuffled once, the i-th claimed slot expands choices[i]
+    final short[] choices;
+    final AtomicReferenceArray<ConcurrentMct> children;
+    volatile int expandedMoves = 0;
+    // games in the high 32 bits, wins in the low 32 bits
+    volatile long stats = 0;
+
+    ConcurrentMct(long[] board, int player) {
+        parent = null;
+        action = RolloutPolicy.NO_MOVE;
+        nextToMove = player;
+        choices = Symmetry.reduce(Mct.getMoves(board, player), board, player);
+        shuffle(choices);
+        children = new AtomicReferenceArray<>(choices.length);
+    }
+
+    private ConcurrentMct(ConcurrentMct parent, short action, long[] board) {
+        nextToMove = 1 - parent.nextToMove;
+        this.parent = parent;
+        this.action = action;
+        Mct.apply(action, parent.nextToMove, board);
+        choices = Mct.getMoves(board, nextToMove);
+        shuffle(choices);
+        children = new AtomicReferenceArray<>(choices.length);
+        // born with the virtual loss of the thread that expanded it
+        stats = (long) VIRTUAL_LOSS << 32;
+    }
+
+    private static void shuffle(short[] moves) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        for (int k = moves.length - 1; k > 0; k--) {
+            int i = r.nextInt(k + 1);
+            short t = moves[k];
+            moves[k] = moves[i];
+            moves[i] = t;
+        }
+    }
+
+    static int games(long stats) {
+        return (int) (stats >>> 32);
+    }
+
+    static int wins(long stats) {
+        return (int) stats;
+    }
+
+    // the visits are compared on the whole tree, so one thread deciding stops them all
+    void search(long[] b, RolloutPolicy rPolicy, SearchConfig config, SearchClock clock) {
+        long[] cb = new long[b.length];
+        Metrics m = rPolicy.metrics;
+        int first = games(stats);
+        for (long it = 0, check = 1; ; ++it) {
+            if (it == check) {
+                long next = clock.next(it);
+                if (next == 0)
+                    break;
+                if (decided(clock, games(stats) - first)) {
+                    clock.stop();
+                    break;
+                }
+                check = it + next;
+            }
+
+            boolean timed = Metrics.ENABLED && m.timed(it);
+            long t = timed ? System.nanoTime() : 0;
+            Mct.copy(b, cb);
+            ConcurrentMct leaf = select(cb, config);
+            if (timed)
+                t = m.select(t);
+            // a new node only has the virtual loss of this thread
+            boolean fresh = leaf.parent != null && games(leaf.stats) == VIRTUAL_LOSS;
+            int vWins = rPolicy.rollouts(cb, leaf.nextToMove, config.batch);
+            if (timed)
+                t = m.rollout(t);
+            leaf.backPropagate(vWins, config.batch);
+            if (timed)
+                m.backPropagate(t);
+            if (Metrics.ENABLED)
+                m.iteration(b, cb, fresh);
+
+        }
+    }
+
+    // applies the virtual loss to every node it walks through
+    ConcurrentMct select(long[] board, SearchConfig config) {
+        ConcurrentMct curr = this;
+        STATS.getAndAdd(curr, (long) VIRTUAL_LOSS << 32);
+        for (; curr.choices.length != 0; ) {
+            if (curr.expandedMoves < curr.choices.length) {
+                ConcurrentMct child = curr.expand(board);
+                if (child != null)
+                    return child;
+            }
+            ConcurrentMct next = curr.best(config);
+            if (next == null)
+                // every child is still being built by another thread
+                return curr;
+            curr = next;
+            STATS.getAndAdd(curr, (long) VIRTUAL_LOSS << 32);
+            Mct.apply(curr.action, 1 - curr.nextToMove, board);
+        }
+        return curr;
+    }
+
+    private boolean decided(SearchClock clock, long iterations) {
+        int best = 0;
+        int second = 0;
+        for (int i = 0; i < children.length(); i++) {
+            ConcurrentMct child = children.get(i);
+            if (child == null)
+                continue;
+            int g = games(child.stats);
+            if (g > best) {
+                second = best;
+                best = g;
+            } else if (g > second) {
+                second = g;
+            }
+        }
+        return clock.decided(best, second, iterations);
+    }
+
+    // the descendant reached by moves filling exactly the cells of diff, null if it isn't in the tree
+    ConcurrentMct find(long[] diff, int filled) {
+        if (filled == 0)
+            return this;
+        int p = nextToMove;
+        for (int k = 0; k < children.length(); k++) {
+            ConcurrentMct child = children.get(k);
+            if (child == null)
+                continue;
+            int a = child.action;
+            if (Mct.legal(diff, a, p)) {
+                Mct.apply(a, p, diff);
+                ConcurrentMct ans = child.find(diff, filled - 2);
+                Mct.undo(a, p, diff);
+                if (ans != null)
+                    return ans;
+            }
+        }
+        return null;
+    }
+
+    // every move is claimed by exactly one thread, the losers of the race fall back to best()
+    private ConcurrentMct expand(long[] board) {
+        int i = EXPANDED.getAndIncrement(this);
+        if (i >= choices.length)
+            return null;
+        ConcurrentMct ans = new ConcurrentMct(this, choices[i], board);
+        children.set(i, ans);
+        return ans;
+    }
+
+    // replaces the virtual loss of the whole path by the results of games playouts,
+    // vWins of them won by V
+    void backPropagate(int vWins, int games) {
+        for (ConcurrentMct curr = this; curr != null; curr = curr.parent) {
+            long delta = (long) (games - VIRTUAL_LOSS) << 32;
+            delta += curr.nextToMove == 0 ? games - vWins : vWins;
+            STATS.getAndAdd(curr, delta);
+        }
+    }
+
+    ConcurrentMct best(SearchConfig config) {
+        double lN = Math.log(games(stats));
+        ConcurrentMct ans = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0, n = Math.min(expandedMoves, choices.length); i < n; i++) {
+            ConcurrentMct child = children.get(i);
+            if (child == null)
+                continue;
+            long s = child.stats;
+            int g = games(s);
+            double score = wins(s) / (double) g + config.exploration * Math.sqrt(lN / g);
+            if (score > bestScore) {
+                bestScore = score;
+                ans = child;
+            }
+        }
+        return ans;
+    }
+
+    int[] bestChild() {
+        ConcurrentMct ans = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < children.length(); i++) {
+            ConcurrentMct child = children.get(i);
+            if (child == null)
+                continue;
+            long s = child.stats;
+            double score = Mct.value((byte) 0, games(s), wins(s), games(s));
+            if (score > bestScore) {
+                bestScore = score;
+                ans = child;
+            }
+        }
+        return ans == null ? null : Mct.coordinates(ans.action);
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentMct{" +
+                "nextToMove=" + nextToMove +
+                ", games=" + games(stats) +
+                ", wins=" + wins(stats) +
+                '}';
+    }
+}
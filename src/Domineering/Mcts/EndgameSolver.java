@@ -0,0 +1,158 @@
+package Domineering.Mcts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Exact solver for positions with few empty cells. The empty cells are split into their
+// connected regions, which are independent games:
+// - a region where only one player can move is an integer, the number of moves that
+//   player can still make there; these are summed into spare moves of one side,
+// - a region where nobody can move is 0 and dropped,
+// - the others are searched together, negamax stopping at the first winning move, with
+//   the spare moves as an extra move of the side owning them.
+// Positions are memoized by the shapes of their regions up to translation and mirrors
+// (see Symmetry.shape), so the same shapes anywhere on the board, in any order and any
+// orientation that keeps the players, share the result.
+public class EndgameSolver {
+    // results kept before the memo is cleared
+    static final int MEMO_SIZE = 1 << 20;
+    // nodes searched between two looks at the clock
+    static final int CHECK = 256;
+    // true if the side to move wins the position
+    final Map<Long, Boolean> memo = new HashMap<>();
+    long nodes;
+    private SearchClock clock;
+    private long deadline;
+    private boolean aborted;
+
+    // A winning move of player, or null if the position is lost or couldn't be solved
+    // within half of the time left on the clock.
+    int[] solve(long[] board, int player, SearchClock clock) {
+        this.clock = clock;
+        deadline = System.nanoTime() + (clock.deadline - System.nanoTime()) / 2;
+        aborted = false;
+        if (memo.size() > MEMO_SIZE)
+            memo.clear();
+        // every move at the root, also the ones in the integers, so the answer is a real move
+        for (short move : Mct.getMoves(board, player)) {
+            long[] child = board.clone();
+            Mct.apply(move, player, child);
+            boolean lost = !wins(child, 0, 1 - player);
+            if (aborted)
+                return null;
+            if (lost)
+                return Mct.coordinates(move);
+        }
+        return null;
+    }
+
+    // true if player wins board plus spare spare moves, V's when positive and H's when negative
+    private boolean wins(long[] board, int spare, int player) {
+        if (++nodes % CHECK == 0 && (clock.stopped || System.nanoTime() > deadline))
+            aborted = true;
+        if (aborted)
+            return false;
+
+        List<long[]> hot = new ArrayList<>();
+        // the hot regions only, the integers being in spare from now on
+        long[] game = new long[board.length];
+        long key = 0;
+        for (long[] region : regions(board)) {
+            boolean v = RolloutPolicy.countMovesV(region) > 0;
+            boolean h = RolloutPolicy.countMovesH(region) > 0;
+            if (v && h) {
+                hot.add(region);
+                for (int i = 0; i < game.length; i++) {
+                    game[i] |= region[i];
+                }
+                key += mix(Symmetry.shape(region));
+            } else if (v) {
+                spare += RolloutPolicy.countMovesV(region);
+            } else if (h) {
+                spare -= RolloutPolicy.countMovesH(region);
+            }
+        }
+        if (hot.isEmpty())
+            return player == 0 ? spare > 0 : spare < 0;
+        key = mix(key + spare * 0x632BE59BD9B4E019L + player);
+        Boolean known = memo.get(key);
+        if (known != null)
+            return known;
+
+        boolean ans = false;
+        for (int r = 0; r < hot.size() && !ans; r++) {
+            long[] region = hot.get(r);
+            long[] rest = game.clone();
+            for (int i = 0; i < rest.length; i++) {
+                rest[i] &= ~region[i];
+            }
+            for (short move : Mct.getMoves(region, player)) {
+                long[] child = region.clone();
+                Mct.apply(move, player, child);
+                for (int i = 0; i < child.length; i++) {
+                    child[i] |= rest[i];
+                }
+                if (!wins(child, spare, 1 - player)) {
+                    ans = true;
+                    break;
+                }
+            }
+        }
+        // playing in an integer, tried last since it is rarely better than a hot move
+        if (!ans && (player == 0 ? spare > 0 : spare < 0))
+            ans = !wins(game, player == 0 ? spare - 1 : spare + 1, 1 - player);
+
+        if (!aborted)
+            memo.put(key, ans);
+        return ans;
+    }
+
+    // the connected regions of the empty cells of board, each on a board of its own
+    static List<long[]> regions(long[] board) {
+        List<long[]> ans = new ArrayList<>();
+        long[] rest = board.clone();
+        for (int i = 0; i < rest.length; i++) {
+            while (rest[i] != 0) {
+                long[] region = new long[rest.length];
+                region[i] = rest[i] & -rest[i];
+                grow(region, rest);
+                for (int k = i; k < rest.length; k++) {
+                    rest[k] &= ~region[k];
+                }
+                ans.add(region);
+            }
+        }
+        return ans;
+    }
+
+    // floods region over the empty cells of board
+    private static void grow(long[] region, long[] board) {
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int k = 0; k < region.length; k++) {
+                long g = region[k];
+                if (k > 0)
+                    g |= region[k - 1];
+                if (k + 1 < region.length)
+                    g |= region[k + 1];
+                g &= board[k];
+                // along the line, up to the ends of the runs
+                for (long x; g != (x = (g | g << 1 | g >>> 1) & board[k]); ) {
+                    g = x;
+                }
+                if (g != region[k]) {
+                    region[k] = g;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+        x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return x ^ (x >>> 33);
+    }
+}
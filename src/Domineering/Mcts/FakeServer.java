@@ -0,0 +1,224 @@
+package Domineering.Mcts;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+// Local stand-in for the game server, to try a Client without the real one, run with:
+// java Domineering.Mcts.FakeServer [games] [opponent ms per move] [port] [boards per message]
+//     [mode] [threads]
+// It starts a Client of an MctAgent against itself, then plays the games at once, half
+// of them with the client as V, speaking the protocol described in Client: the name and
+// "Welcome", a "Ping", then messages of requests. The messages cycle through 1 up to
+// boards requests, so the client sees the number of boards of its games change between
+// moves. Its opponent is another MctAgent thinking ms per move, time the client can
+// ponder in. Both agents search in mode on threads threads, by default those of Main.
+// An illegal or unparsable answer loses the game. Prints the score and how long the
+// client took to answer, against the time the server grants.
+public class FakeServer {
+    static final int SIZE = 12;
+    static final String ROUND = "1";
+
+    final int size;
+    // owner[g][x][y] is 0 for an empty cell, 1 for V's and 2 for H's, as on the wire
+    final int[][][] owner;
+    // player to move in each game, 0 for V
+    final int[] turn;
+    // 0 if the game is running, else 1 + the winner
+    final int[] result;
+    final AI opponent;
+    int late = 0;
+    long maxNanos = 0;
+    long totalNanos = 0;
+    int messages = 0;
+
+    FakeServer(int games, int size, AI opponent) {
+        this.size = size;
+        this.opponent = opponent;
+        owner = new int[games][size][size];
+        turn = new int[games];
+        result = new int[games];
+    }
+
+    public static void main(String[] args) throws IOException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        int perMessage = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        SearchMode mode = args.length > 4 ? SearchMode.valueOf(args[4]) : Main.MODE;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Main.THREADS;
+
+        MctAgent opponent = new MctAgent(mode, threads);
+        opponent.gc = false;
+        opponent.setMoveBudget(budget);
+        FakeServer server = new FakeServer(games, SIZE, opponent);
+        try (ServerSocket socket = new ServerSocket(port)) {
+            Thread client = new Thread(() -> {
+                try {
+                    MctAgent agent = new MctAgent(mode, threads);
+                    agent.gc = false;
+                    new Client(agent, "fake client", "localhost", socket.getLocalPort()).run();
+                } catch (IOException e) {
+                    System.out.println("Client failed: " + e);
+                }
+            }, "client");
+            client.setDaemon(true);
+            client.start();
+            try (Socket s = socket.accept();
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                 PrintWriter out = new PrintWriter(s.getOutputStream(), true)) {
+                System.out.println("Playing " + in.readLine());
+                out.println("Welcome");
+                out.println("Ping");
+                if (!"Pong".equals(in.readLine()))
+                    throw new IllegalStateException("no Pong");
+                server.play(in, out, perMessage);
+            }
+        }
+        server.print();
+    }
+
+    // the client is V in the even games
+    int client(int g) {
+        return g % 2;
+    }
+
+    void play(BufferedReader in, PrintWriter out, int perMessage) throws IOException {
+        while (true) {
+            for (int g = 0; g < turn.length; g++) {
+                if (result[g] == 0 && turn[g] != client(g))
+                    opponentMove(g);
+            }
+            List<Integer> asked = new ArrayList<>();
+            int limit = 1 + messages % perMessage;
+            for (int g = 0; g < turn.length && asked.size() < limit; g++) {
+                if (result[g] != 0 || turn[g] != client(g))
+                    continue;
+                if (!Mct.hasMoves(lines(g), turn[g]))
+                    result[g] = 2 - turn[g];
+                else
+                    asked.add(g);
+            }
+            if (asked.isEmpty()) {
+                boolean running = false;
+                for (int r : result) {
+                    running |= r == 0;
+                }
+                if (!running)
+                    return;
+                continue;
+            }
+            StringBuilder message = new StringBuilder();
+            for (int g : asked) {
+                if (message.length() > 0)
+                    message.append('/');
+                message.append(turn[g] == 0 ? 'V' : 'H').append(';').append(ROUND).append(';').append(g)
+                        .append(";fake server;").append(encode(owner[g]));
+            }
+            long sent = System.nanoTime();
+            out.println(message);
+            String answer = in.readLine();
+            long nanos = System.nanoTime() - sent;
+            if (answer == null)
+                throw new IOException("the client left");
+            ++messages;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            if (nanos > Math.max(TimeManager.MESSAGE, TimeManager.PER_BOARD * asked.size()) * 1000000)
+                ++late;
+            for (int g : asked) {
+                if (!apply(g, move(answer, g))) {
+                    System.out.println("game " + g + ": illegal answer " + answer);
+                    result[g] = 2 - turn[g];
+                }
+            }
+        }
+    }
+
+    private void opponentMove(int g) {
+        int p = turn[g];
+        if (!Mct.hasMoves(lines(g), p)) {
+            result[g] = 2 - p;
+            return;
+        }
+        char[][] board = new char[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                board[x][y] = owner[g][x][y] == 0 ? 'E' : owner[g][x][y] == 1 ? 'V' : 'H';
+            }
+        }
+        Coordinate c = opponent.ai(board, p == 0 ? Player.V : Player.H, "fake client", ROUND + ";" + g);
+        apply(g, new int[]{c.getX(), c.getY()});
+    }
+
+    // the move of game g in an answer "<RoundID>;<GameID>;(x,y)/...", null if it has none
+    private static int[] move(String answer, int g) {
+        for (String part : answer.split("/")) {
+            String[] fields = part.split(";");
+            if (fields.length == 3 && fields[0].equals(ROUND) && fields[1].equals(String.valueOf(g))
+                    && fields[2].startsWith("(") && fields[2].endsWith(")")) {
+                try {
+                    Coordinate c = new Coordinate(fields[2].substring(1, fields[2].length() - 1));
+                    return new int[]{c.getX(), c.getY()};
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    // plays the move of the player to move in game g, false if it isn't legal
+    private boolean apply(int g, int[] move) {
+        int p = turn[g];
+        if (move == null)
+            return false;
+        int x = move[0];
+        int y = move[1];
+        int x2 = x + p;
+        int y2 = y + 1 - p;
+        if (x < 0 || y < 0 || x2 >= size || y2 >= size || owner[g][x][y] != 0 || owner[g][x2][y2] != 0)
+            return false;
+        owner[g][x][y] = owner[g][x2][y2] = p + 1;
+        turn[g] = 1 - p;
+        return true;
+    }
+
+    private long[] lines(int g) {
+        long[] ans = new long[size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                if (owner[g][x][y] == 0)
+                    Board.set(ans, x, y);
+            }
+        }
+        return ans;
+    }
+
+    // the inverse of Board.decode
+    static String encode(int[][] owner) {
+        int n = owner.length;
+        StringBuilder ans = new StringBuilder(n * n / 2);
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x += 2) {
+                ans.append((char) ('0' + 3 * owner[x][y] + owner[x + 1][y]));
+            }
+        }
+        return ans.toString();
+    }
+
+    void print() {
+        int won = 0;
+        for (int g = 0; g < result.length; g++) {
+            if (result[g] - 1 == client(g))
+                ++won;
+        }
+        System.out.printf("client won %d/%d, %d messages answered in %.1f ms on average, %.1f ms at most, %d late%n",
+                won, result.length, messages, messages == 0 ? 0 : totalNanos / 1e6 / messages, maxNanos / 1e6, late);
+    }
+}
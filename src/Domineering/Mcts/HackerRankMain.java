@@ -1,5 +1,7 @@
 package Domineering.Mcts;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class HackerRankMain {
@@ -10,19 +12,23 @@ public class HackerRankMain {
         Scanner s = new Scanner(System.in);
         String player = s.next();
         int turn = player.equals("v") ? 0 : 1;
-        final int N = 8;
-        RolloutPolicy rp = new RolloutPolicy(N);
+        RolloutPolicy rp = new RolloutPolicy();
 
-        boolean[][] board = new boolean[N][N];
+        // one row per line, 8 of them on HackerRank
+        List<String> rows = new ArrayList<>();
+        while (s.hasNext()) {
+            rows.add(s.next());
+        }
 
         // the i-index first because that's the convention taken during the original competitions
-        for (int j = 0; j < N; ++j) {
-            String b = s.next();
+        Board board = new Board(new long[rows.get(0).length()], rows.size());
+        for (int j = 0; j < rows.size(); ++j) {
+            String b = rows.get(j);
             for (int i = 0; i < b.length(); ++i) {
-                board[i][j] = b.charAt(i) != '-';
+                if (b.charAt(i) == '-') Board.set(board.lines, i, j);
             }
         }
-        int[] ans = Mct.answer(board, turn, rp);
+        int[] ans = Mct.answer(board.lines, turn, rp);
         System.out.println(ans[1] + " " + ans[0]);
 
     }
@@ -0,0 +1,136 @@
+package Domineering.Mcts;
+
+// Keeps the terms of RolloutPolicy.evaluateMove per line, so that placing or removing
+// a piece only recomputes the lines around it instead of the whole board.
+public class IncrementalEvaluator {
+    long[] board;
+    // lines of the board
+    int N;
+
+    // line terms, depending on lines i-1..i+1
+    int[] movesV = new int[0];
+    int[] safeV;
+    int[] holes;
+    // greedy chains over the line pairs (i, i+1), each depending on the previous pair
+    long[] movesH;
+    long[] safeH;
+
+    int totalMovesV;
+    int totalSafeV;
+    int totalHoles;
+    int totalMovesH;
+    int totalSafeH;
+
+    // differences of the totals found by the last scan
+    private int dMovesV;
+    private int dSafeV;
+    private int dHoles;
+    private int dMovesH;
+    private int dSafeH;
+
+    // full scan, the board is then only to be modified through set/unset
+    void reset(long[] board) {
+        this.board = board;
+        N = board.length;
+        if (movesV.length != N) {
+            movesV = new int[N];
+            safeV = new int[N];
+            holes = new int[N];
+            movesH = new long[Math.max(0, N - 1)];
+            safeH = new long[Math.max(0, N - 1)];
+        }
+        totalMovesV = totalSafeV = totalHoles = 0;
+        for (int i = 0; i < N; i++) {
+            totalMovesV += movesV[i] = RolloutPolicy.movesV(board, i);
+            totalSafeV += safeV[i] = RolloutPolicy.safeV(board, i);
+            totalHoles += holes[i] = RolloutPolicy.holes(board, i);
+        }
+        totalMovesH = totalSafeH = 0;
+        long oldMoves = 0;
+        long oldSafe = 0;
+        for (int i = 0; i < N - 1; i++) {
+            totalMovesH += Long.bitCount(movesH[i] = oldMoves = RolloutPolicy.movesH(board, i, oldMoves));
+            totalSafeH += Long.bitCount(safeH[i] = oldSafe = RolloutPolicy.safeH(board, i, oldSafe));
+        }
+    }
+
+    void set(int i, int j) {
+        Board.set(board, i, j);
+        scan(i, i, true);
+    }
+
+    void unset(int i, int j) {
+        Board.unset(board, i, j);
+        scan(i, i, true);
+    }
+
+    // lines lo..hi were modified directly on the board, records them
+    void update(int lo, int hi) {
+        scan(lo, hi, true);
+    }
+
+    int evaluate(Player player) {
+        int ans = (totalMovesH - totalMovesV) + (totalSafeH - totalSafeV);
+        return RolloutPolicy.score(ans, totalHoles, player);
+    }
+
+    // evaluates the board with lines lo..hi modified, without recording them,
+    // so the caller only has to restore the board afterwards
+    int evaluate(int lo, int hi, Player player) {
+        scan(lo, hi, false);
+        int ans = (totalMovesH + dMovesH - totalMovesV - dMovesV) + (totalSafeH + dSafeH - totalSafeV - dSafeV);
+        return RolloutPolicy.score(ans, totalHoles + dHoles, player);
+    }
+
+    private void scan(int lo, int hi, boolean store) {
+        dMovesV = dSafeV = dHoles = dMovesH = dSafeH = 0;
+        for (int k = lo; k <= hi; k++) {
+            int v = RolloutPolicy.movesV(board, k);
+            dMovesV += v - movesV[k];
+            if (store)
+                movesV[k] = v;
+        }
+        for (int k = Math.max(0, lo - 1), end = Math.min(N - 1, hi + 1); k <= end; k++) {
+            int v = RolloutPolicy.safeV(board, k);
+            dSafeV += v - safeV[k];
+            if (store)
+                safeV[k] = v;
+            v = RolloutPolicy.holes(board, k);
+            dHoles += v - holes[k];
+            if (store)
+                holes[k] = v;
+        }
+
+        // the pairs lo-1..hi changed, later pairs only while their input does
+        int first = Math.max(0, lo - 1);
+        int last = Math.min(N - 2, hi);
+        long old = first == 0 ? 0 : movesH[first - 1];
+        for (int k = first; k < N - 1; k++) {
+            long v = RolloutPolicy.movesH(board, k, old);
+            if (k > last && v == movesH[k])
+                break;
+            dMovesH += Long.bitCount(v) - Long.bitCount(movesH[k]);
+            if (store)
+                movesH[k] = v;
+            old = v;
+        }
+        old = first == 0 ? 0 : safeH[first - 1];
+        for (int k = first; k < N - 1; k++) {
+            long v = RolloutPolicy.safeH(board, k, old);
+            if (k > last && v == safeH[k])
+                break;
+            dSafeH += Long.bitCount(v) - Long.bitCount(safeH[k]);
+            if (store)
+                safeH[k] = v;
+            old = v;
+        }
+
+        if (store) {
+            totalMovesV += dMovesV;
+            totalSafeV += dSafeV;
+            totalHoles += dHoles;
+            totalMovesH += dMovesH;
+            totalSafeH += dSafeH;
+        }
+    }
+}
@@ -1,13 +1,22 @@
 package Domineering.Mcts;
 
+import java.io.File;
 import java.io.IOException;
 
 public class Main {
     private static final String NAME = "Ala Monte Carlo JS roll"; // FIXME: Change me!
+    // threads * boost frequency (GHz) may not exceed 10, see Client
+    static final int THREADS = 2; // FIXME: Change me according to the CPU!
+    static final SearchMode MODE = SearchMode.ROOT_PARALLEL;
+    // built with BookBuilder, played without it if missing
+    private static final String BOOK = "opening.book";
 
     public static void main(String[] args) throws IOException {
         // code for the Domineering Competition
-        Client c = new Client(new MctAgent(), NAME);
+        SearchConfig config = new SearchConfig();
+        if (new File(BOOK).exists())
+            config.book(OpeningBook.open(BOOK));
+        Client c = new Client(new MctAgent(MODE, THREADS, SearchEngine.POOL_CAPACITY, config), NAME);
         new Thread(c).start();
     }
-}
\ No newline at end of file
+}
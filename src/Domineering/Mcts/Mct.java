@@ -2,74 +2,267 @@ package Domineering.Mcts;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Random;
-
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// With a TranspositionTable the tree is a DAG: a node reached by several move orders is
+// shared and its games/wins pool all of them, while the edges count their own visits (UCT2).
+// parent is then only the node that created it, so playouts are propagated along the
+// selected path.
+// MCTS-Solver: a node is proven once it is won or lost whatever the players do, for the
+// player who moved to it. A node where nextToMove can't move is won, one with a won child
+// is lost and one whose moves all lead to lost children is won. Proven nodes are left
+// out of the selection and the search stops as soon as the root is proven.
 public class Mct {
-    static final Random rand = new Random();
-    final Mct parent;
+    static final byte WON = 1;
+    static final byte LOST = -1;
+
+    // null for the root, also once the node is promoted to root by a SearchSession
+    Mct parent;
     // 0: Vertical
     // 1: Horizental
     final int nextToMove;
 
-    // (x,y) convention
-    final int[] action;
-    final ArrayList<int[]> choices;
+    // moves packed with RolloutPolicy.move, NO_MOVE for the root
+    final short action;
+    final short[] choices;
+    // children.get(k) is reached by choices[k]
     final ArrayList<Mct> children;
+    // visits of the edge to children.get(k)
+    final int[] edges;
+    // Zobrist hash of the position and the side to move
+    final long hash;
+    // All-Moves-As-First statistics of choices.get(k): the playouts through this node
+    // where nextToMove played it at any point after, and the ones it won; null until
+    // the search uses RAVE
+    int[] amafGames;
+    int[] amafWins;
+    // with progressive widening, the win rate the child of choices.get(k) starts with
+    float[] priors;
     int expandedMoves = 0;
     int games = 0;
     int wins = 0;
+    // WON, LOST or 0 while unknown, for the player who moved to the node
+    byte proven = 0;
 
-    Mct(boolean[][] board, int player) {
+    Mct(long[] board, int player) {
         parent = null;
-        action = null;
+        action = RolloutPolicy.NO_MOVE;
         nextToMove = player;
-        choices = getMoves(board, player);
+        // one move per group of symmetric moves, see Symmetry.reduce
+        choices = Symmetry.reduce(getMoves(board, player), board, player);
+        if (choices.length == 0)
+            proven = WON;
         children = new ArrayList<>();
+        edges = new int[choices.length];
+        hash = Zobrist.hash(board, player);
     }
 
-    Mct(Mct parent, int[] action, boolean[][] board) {
+    Mct(Mct parent, short action, long[] board) {
 
         nextToMove = 1 - parent.nextToMove;
         this.parent = parent;
         this.action = action;
         apply(action, parent.nextToMove, board);
-        choices = parent.parent != null ?
-                getMoves(parent.parent.choices, board, nextToMove)
-                : getMoves(board, nextToMove);
+        choices = getMoves(board, nextToMove);
+        if (choices.length == 0)
+            proven = WON;
         children = new ArrayList<>();
+        edges = new int[choices.length];
+        hash = parent.hash ^ Zobrist.move(action, parent.nextToMove);
 
     }
 
-    static void copy(boolean[][] src, boolean[][] dst) {
-        for (int i = 0; i < src.length; i++) {
-            System.arraycopy(src[i], 0, dst[i], 0, src[i].length);
-        }
+    static void copy(long[] src, long[] dst) {
+        System.arraycopy(src, 0, dst, 0, src.length);
     }
 
-    static int[] answer(boolean[][] b, int player, RolloutPolicy rPolicy) {
-        long end = System.currentTimeMillis() + 270;
+    static int[] answer(long[] b, int player, RolloutPolicy rPolicy) {
+        return answer(b, player, rPolicy, new SearchConfig());
+    }
+
+    static int[] answer(long[] b, int player, RolloutPolicy rPolicy, SearchConfig config) {
+        SearchClock clock = new SearchClock(SearchEngine.BUDGET * 1000000);
 
         Mct mct = new Mct(b, player);
-        if (mct.choices.isEmpty())
+        if (mct.choices.length == 0)
             return null;
-        boolean[][] cb = new boolean[b.length][b[0].length];
-        for (; System.currentTimeMillis() < end; ) {
+        int[] known = config.book == null ? null : config.book.move(b, player);
+        if (known != null)
+            return known;
+        if (Board.empty(b) <= config.endgame) {
+            int[] won = new EndgameSolver().solve(b, player, clock);
+            if (won != null)
+                return won;
+            clock = clock.rest();
+        }
+        mct.search(b, rPolicy, null, config, clock);
+        //System.out.println(mct.games);
+        return mct.bestChild();
+    }
+
+    // tt may be null to search a plain tree
+    void search(long[] b, RolloutPolicy rPolicy, TranspositionTable tt, SearchConfig config, SearchClock clock) {
+        long[] cb = new long[b.length];
+        ArrayList<Mct> path = new ArrayList<>();
+        // who played each move of the running playout, see amaf
+        int[] owner = config.rave > 0 ? new int[b.length << 6] : null;
+        Metrics m = rPolicy.metrics;
+        int first = games;
+        // the first playout runs whatever the clock says, so there is a move to answer
+        for (long it = 0, check = 1; ; ++it) {
+            // the time left goes to the other boards of the message
+            if (proven != 0) {
+                clock.stop();
+                break;
+            }
+            if (it == check) {
+                long next = clock.next(it);
+                if (next == 0 || decided(clock, games - first))
+                    break;
+                check = it + next;
+            }
 
+            boolean timed = Metrics.ENABLED && m.timed(it);
+            long t = timed ? System.nanoTime() : 0;
             copy(b, cb);
-            Mct leaf = mct.select(cb);
-            int winner = leaf.rollout(cb, rPolicy);
-            leaf.backPropagate(winner);
+            path.clear();
+            Mct leaf = select(cb, tt, config, path, rPolicy.evaluator);
+            if (timed)
+                t = m.select(t);
+            boolean fresh = leaf.games == (config.width > 0 ? config.prior : 0);
+            // a proven leaf counts as its result rather than as rollouts
+            int vWins = leaf.proven != 0 ? ((leaf.proven == WON) == (leaf.nextToMove == 1) ? config.batch : 0)
+                    : owner != null ? amafRollouts(cb, path, rPolicy, config.batch, owner)
+                    : rPolicy.rollouts(cb, leaf.nextToMove, config.batch);
+            if (timed)
+                t = m.rollout(t);
+            backPropagate(path, vWins, config.batch);
+            if (timed)
+                m.backPropagate(t);
+            if (Metrics.ENABLED)
+                m.iteration(b, cb, fresh);
 
         }
-        //System.out.println(mct.games);
-        return mct.bestChild();
     }
 
-    static void apply(int[] move, int player, boolean[][] board) {
+    // The rollouts of the leaf of path, each one also counted in the AMAF statistics of
+    // every node of the path for the moves its player made below it, in the tree or in
+    // the rollout. A move's cells are filled once, so owner, indexed by the packed moves,
+    // tells who played the move anchored at a cell in the playout. Returns the wins of V.
+    static int amafRollouts(long[] board, ArrayList<Mct> path, RolloutPolicy rPolicy, int k, int[] owner) {
+        int last = path.size() - 1;
+        for (int d = 0; d < last; d++) {
+            Mct node = path.get(d);
+            // with a transposition table, the child's own action may be another parent's
+            owner[node.choices[node.children.indexOf(path.get(d + 1))]] = node.nextToMove + 1;
+        }
+        int p = path.get(last).nextToMove;
+        int ans = 0;
+        rPolicy.record = true;
+        for (int r = 0; r < k; r++) {
+            int vWins = rPolicy.rollouts(board, p, 1);
+            ans += vWins;
+            for (int c = 0; c < rPolicy.playedCount; c++) {
+                owner[rPolicy.played[c]] = ((p + c) & 1) + 1;
+            }
+            for (Mct node : path) {
+                node.amaf(owner, vWins == 1 ? 0 : 1);
+            }
+            for (int c = 0; c < rPolicy.playedCount; c++) {
+                owner[rPolicy.played[c]] = 0;
+            }
+        }
+        rPolicy.record = false;
+        for (int d = 0; d < last; d++) {
+            owner[path.get(d).choices[path.get(d).children.indexOf(path.get(d + 1))]] = 0;
+        }
+        return ans;
+    }
+
+    // the choices are still legal here, so any of them played in the playout was played after
+    private void amaf(int[] owner, int winner) {
+        if (amafGames == null) {
+            amafGames = new int[choices.length];
+            amafWins = new int[choices.length];
+        }
+        for (int k = 0; k < choices.length; k++) {
+            if (owner[choices[k]] == nextToMove + 1) {
+                ++amafGames[k];
+                if (winner == nextToMove)
+                    ++amafWins[k];
+            }
+        }
+    }
+
+    // root parallelism: sums the statistics of the root children of independent trees
+    // of a board of n lines, a move being counted at its packed form; a proof found by
+    // any of the trees holds for all
+    static int[] merge(List<Mct> roots, int n) {
+        int[] visits = new int[n << 6];
+        int[] games = new int[n << 6];
+        int[] wins = new int[n << 6];
+        byte[] proven = new byte[n << 6];
+        for (Mct root : roots) {
+            for (int c = 0; c < root.children.size(); c++) {
+                Mct child = root.children.get(c);
+                int k = root.choices[c];
+                visits[k] += root.edges[c];
+                games[k] += child.games;
+                wins[k] += child.wins;
+                if (child.proven != 0)
+                    proven[k] = child.proven;
+            }
+        }
+        int best = -1;
+        for (int k = 0; k < games.length; k++) {
+            if (games[k] > 0 && (best == -1 || value(proven[k], visits[k], wins[k], games[k])
+                    > value(proven[best], visits[best], wins[best], games[best])))
+                best = k;
+        }
+        return best == -1 ? null : coordinates(best);
+    }
+
+    // on the visits of the edges, which the priors of progressive widening don't inflate
+    private boolean decided(SearchClock clock, long iterations) {
+        int best = 0;
+        int second = 0;
+        for (int k = 0; k < children.size(); k++) {
+            if (edges[k] > best) {
+                second = best;
+                best = edges[k];
+            } else if (edges[k] > second) {
+                second = edges[k];
+            }
+        }
+        return clock.decided(best, second, iterations);
+    }
 
-        board[move[0]][move[1]] = true;
-        board[move[0] + player][move[1] + 1 - player] = true;
+    // how good a child is to play: a proven win above all, a proven loss below, else
+    // the robust child, the one of most visits, which is what decided() waits to settle;
+    // the win rate only breaks ties
+    static double value(byte proven, int visits, int wins, int games) {
+        return proven == WON ? Double.POSITIVE_INFINITY : proven == LOST ? -1
+                : visits + wins / (2.0 * games);
+    }
+
+    static void apply(int move, int player, long[] board) {
+        int i = RolloutPolicy.moveX(move);
+        int j = RolloutPolicy.moveY(move);
+        Board.unset(board, i, j);
+        Board.unset(board, i + player, j + 1 - player);
+    }
+
+    static void undo(int move, int player, long[] board) {
+        int i = RolloutPolicy.moveX(move);
+        int j = RolloutPolicy.moveY(move);
+        Board.set(board, i, j);
+        Board.set(board, i + player, j + 1 - player);
+    }
+
+    // a packed move as {x, y}, the form the moves leave the search in
+    static int[] coordinates(int move) {
+        return new int[]{RolloutPolicy.moveX(move), RolloutPolicy.moveY(move)};
     }
 
     static public void printBoard(boolean[][] board) {
@@ -92,105 +285,260 @@ public class Mct {
         }
     }
 
-    static boolean[][] b(char[][] br) {
-        boolean[][] ans = new boolean[br.length][br[0].length];
-        for (int i = 0; i < br.length; i++) {
-            for (int j = 0; j < br[i].length; j++) {
-                ans[i][j] = br[i][j] != 'E';
-            }
-        }
-        return ans;
+    static public Coordinate ai(char[][] board, Player player, RolloutPolicy rp) {
+        return ai(board, player, rp, new SearchConfig());
     }
 
-    static public Coordinate ai(char[][] board, Player player, RolloutPolicy rp) {
+    static public Coordinate ai(char[][] board, Player player, RolloutPolicy rp, SearchConfig config) {
         int turn = Player.V == player ? 0 : 1;
-        boolean[][] x = b(board);
+        long[] x = Board.of(board).lines;
 
-        int[] u = answer(x, turn, rp);
+        int[] u = answer(x, turn, rp, config);
         return new Coordinate(u[0], u[1]);
     }
 
-    private ArrayList<int[]> getMoves(ArrayList<int[]> grandfather, boolean[][] board, int player) {
-        ArrayList<int[]> ans = new ArrayList<>(grandfather.size());
-        int ni = player;
-        int njs = 1 - player;
+    static boolean legal(long[] board, int move, int player) {
+        int i = RolloutPolicy.moveX(move);
+        int j = RolloutPolicy.moveY(move);
+        // the two cells are on the same line for V, at the same row of lines i and i + 1 for H
+        return (board[i] & (board[i + player] >>> (1 - player)) & (1L << j)) != 0;
+    }
 
-        for (int[] x : grandfather) {
+    // the descendant reached by moves filling exactly the cells of diff, null if it isn't in the tree
+    Mct find(long[] diff, int filled) {
+        if (filled == 0)
+            return this;
+        int p = nextToMove;
+        for (int c = 0; c < children.size(); c++) {
+            Mct child = children.get(c);
+            int a = choices[c];
+            if (legal(diff, a, p)) {
+                apply(a, p, diff);
+                Mct ans = child.find(diff, filled - 2);
+                undo(a, p, diff);
+                if (ans != null)
+                    return ans;
+            }
+        }
+        return null;
+    }
 
-            if (!board[x[0]][x[1]] && !board[x[0] + ni][x[1] + njs]) {
-                ans.add(x);
+    // The anchors of the moves are an AND of the lines, so this is cheaper than filtering
+    // the grandparent's moves. They are counted first so the list is allocated once.
+    static short[] getMoves(long[] board, int player) {
+        int N = board.length;
+        int size = 0;
+        for (int i = 0; i + player < N; i++) {
+            size += Long.bitCount(anchors(board, i, player));
+        }
+        short[] ans = new short[size];
+        size = 0;
+        for (int i = 0; i + player < N; i++) {
+            for (long play = anchors(board, i, player); play != 0; play &= play - 1) {
+                ans[size++] = (short) RolloutPolicy.move(i, Long.numberOfTrailingZeros(play));
             }
         }
         return ans;
 
     }
 
-    boolean fullyExpanded() {
-        return choices.size() == children.size();
+    // anchors (i,j) of line i whose partner cell is empty too
+    static long anchors(long[] board, int i, int player) {
+        return player == 0 ? board[i] & (board[i] >>> 1) : board[i] & board[i + 1];
     }
 
-    private ArrayList<int[]> getMoves(boolean[][] board, int player) {
-        ArrayList<int[]> ans = new ArrayList<>();
-        int ni = player;
-        int njs = 1 - player;
-        for (int i = 0; ni < board.length; ++ni, i++) {
-
-            for (int nj = njs, j = 0; nj < board.length; ++nj, ++j) {
-
-                if (!board[i][j] && !board[ni][nj]) {
-                    ans.add(new int[]{i, j});
-                }
+    static boolean hasMoves(long[] board, int player) {
+        for (int i = 0; i + player < board.length; i++) {
+            if (anchors(board, i, player) != 0)
+                return true;
+        }
+        return false;
+    }
 
-            }
+    int[] bestChild() {
+        return coordinates(choices[bestIndex()]);
+    }
 
+    // index of the child to play
+    int bestIndex() {
+        int ans = -1;
+        for (int k = 0; k < children.size(); k++) {
+            Mct p = children.get(k);
+            Mct q = ans == -1 ? null : children.get(ans);
+            if (q == null || value(p.proven, edges[k], p.wins, p.games) > value(q.proven, edges[ans], q.wins, q.games))
+                ans = k;
         }
         return ans;
-
     }
 
-    private int[] bestChild() {
-        return children.stream().max(Comparator.comparing(p -> (p.wins + 1) / (double) (p.games) + 2)).get().action;
+    static void backPropagate(ArrayList<Mct> path, int winner) {
+        backPropagate(path, winner == 0 ? 1 : 0, 1);
     }
 
-    void backPropagate(int winner) {
-
-        if (winner != nextToMove) {
-            ++wins;
+    // games playouts of which V won vWins, then the proofs the leaf brings up
+    static void backPropagate(ArrayList<Mct> path, int vWins, int games) {
+        for (int k = path.size() - 1; k >= 0; k--) {
+            Mct curr = path.get(k);
+            curr.wins += curr.nextToMove == 0 ? games - vWins : vWins;
+            curr.games += games;
         }
+        for (int k = path.size() - 2; k >= 0 && path.get(k + 1).proven != 0; k--) {
+            if (!path.get(k).prove(path.get(k + 1)))
+                break;
+        }
+    }
 
-        ++games;
-        if (parent != null)
-            parent.backPropagate(winner);
+    // true if child, just proven, proves this node too
+    private boolean prove(Mct child) {
+        if (proven != 0)
+            return false;
+        if (child.proven == WON) {
+            proven = LOST;
+            return true;
+        }
+        if (expandedMoves < choices.length)
+            return false;
+        for (Mct c : children) {
+            if (c.proven != LOST)
+                return false;
+        }
+        proven = WON;
+        return true;
     }
 
-    Mct select(boolean[][] board) {
+    // fills path with the nodes from this to the returned leaf; evaluator orders the
+    // moves for progressive widening
+    Mct select(long[] board, TranspositionTable tt, SearchConfig config, ArrayList<Mct> path,
+               IncrementalEvaluator evaluator) {
         Mct curr = this;
-        for (; !curr.choices.isEmpty(); ) {
-            if (!curr.fullyExpanded())
-                return curr.expand(board);
-            curr = curr.best();
-            apply(curr.action, 1 - curr.nextToMove, board);
+        path.add(curr);
+        for (; curr.proven == 0; ) {
+            int k = curr.expandedMoves < curr.width(config) ? -1 : curr.best(config);
+            if (k == -1) {
+                // every move lost, which prove() misses when the children were proven
+                // through other parents of the transposition table
+                if (curr.expandedMoves == curr.choices.length) {
+                    curr.proven = WON;
+                    return curr;
+                }
+                // the moves expanded so far are all lost, so the widening has to go on
+                Mct leaf = curr.expand(board, tt, config, evaluator);
+                curr.edges[curr.expandedMoves - 1] += config.batch;
+                path.add(leaf);
+                return leaf;
+            }
+            curr.edges[k] += config.batch;
+            apply(curr.choices[k], curr.nextToMove, board);
+            curr = curr.children.get(k);
+            path.add(curr);
         }
         return curr;
     }
 
-    private Mct expand(boolean[][] board) {
-        int i = rand.nextInt(choices.size() - expandedMoves) + expandedMoves;
+    // moves the node may have expanded at its visits
+    int width(SearchConfig config) {
+        if (config.width == 0)
+            return choices.length;
+        return (int) Math.min(choices.length, config.width + Math.pow(games, config.widening));
+    }
+
+    // Sorts the choices by the evaluation of the position they lead to, best first, and
+    // turns the scores into priors between 0.25 and 0.75. Ties stay in random order.
+    private void order(long[] board, IncrementalEvaluator evaluator) {
+        Player player = nextToMove == 0 ? Player.V : Player.H;
+        int n = choices.length;
+        // a random permutation, to break the ties
+        int[] order = new int[n];
+        for (int k = 0; k < n; k++) {
+            order[k] = k;
+        }
+        for (int k = n - 1; k > 0; k--) {
+            int r = ThreadLocalRandom.current().nextInt(k + 1);
+            swap(order, k, r);
+        }
+        long[] keyed = new long[n];
+        evaluator.reset(board);
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int k = 0; k < n; k++) {
+            int a = choices[order[k]];
+            int i = RolloutPolicy.moveX(a);
+            apply(a, nextToMove, board);
+            int score = evaluator.evaluate(i, i + nextToMove, player);
+            undo(a, nextToMove, board);
+            min = Math.min(min, score);
+            max = Math.max(max, score);
+            // best first, then by position in the shuffled list
+            keyed[k] = (long) -score << 32 | k;
+        }
+        Arrays.sort(keyed);
+        short[] sorted = new short[n];
+        priors = new float[n];
+        for (int k = 0; k < n; k++) {
+            sorted[k] = choices[order[(int) keyed[k]]];
+            int score = (int) -(keyed[k] >> 32);
+            priors[k] = max == min ? 0.5f : 0.25f + 0.5f * (score - min) / (max - min);
+        }
+        System.arraycopy(sorted, 0, choices, 0, n);
+        // the AMAF statistics a leaf may already have follow their moves
+        if (amafGames != null) {
+            int[] games = amafGames.clone();
+            int[] wins = amafWins.clone();
+            for (int k = 0; k < n; k++) {
+                amafGames[k] = games[order[(int) keyed[k]]];
+                amafWins[k] = wins[order[(int) keyed[k]]];
+            }
+        }
+    }
+
+    private Mct expand(long[] board, TranspositionTable tt, SearchConfig config, IncrementalEvaluator evaluator) {
+        int i;
+        if (config.width == 0) {
+            i = ThreadLocalRandom.current().nextInt(choices.length - expandedMoves) + expandedMoves;
+        } else {
+            if (priors == null)
+                order(board, evaluator);
+            i = expandedMoves;
+        }
 
         //swap the choice to the front
-        int[] tmp = choices.get(i);
-        choices.set(i, choices.get(expandedMoves));
-        choices.set(expandedMoves, tmp);
+        short tmp = choices[i];
+        choices[i] = choices[expandedMoves];
+        choices[expandedMoves] = tmp;
+        if (amafGames != null) {
+            swap(amafGames, i, expandedMoves);
+            swap(amafWins, i, expandedMoves);
+        }
         ++expandedMoves;
 
-        Mct ans = new Mct(this, tmp, board);
+        Mct ans = null;
+        if (tt != null) {
+            ans = tt.get(hash ^ Zobrist.move(tmp, nextToMove));
+            if (ans != null)
+                apply(tmp, nextToMove, board);
+        }
+        if (ans == null) {
+            ans = new Mct(this, tmp, board);
+            if (priors != null) {
+                ans.games = config.prior;
+                ans.wins = Math.round(config.prior * priors[i]);
+            }
+            if (tt != null)
+                tt.put(ans.hash, ans);
+        }
         children.add(ans);
         return ans;
     }
 
-    int rollout(boolean[][] board, RolloutPolicy rPolicy) {
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
 
-        return rPolicy.rollout(RolloutPolicy.transform(board), nextToMove);
+    int rollout(long[] board, RolloutPolicy rPolicy) {
+
+        return rPolicy.rollout(board, nextToMove);
 
     }
 
@@ -200,18 +548,39 @@ public class Mct {
 
                 ", nextToMove=" + nextToMove +
 
-                ", action=" + Arrays.toString(action) +
+                ", action=" + (action == RolloutPolicy.NO_MOVE ? "none" : Arrays.toString(coordinates(action))) +
                 ", games=" + games +
                 ", wins=" + wins +
                 '}';
     }
 
-    Mct best() {
+    // Index of the child to descend to, explored according to the visits of its edge,
+    // -1 if they are all proven lost. A proven win is taken at once. With RAVE the value
+    // of a child is blended with its AMAF value, whose weight
+    // beta = sqrt(rave / (3 * visits + rave)) fades as the child gets its own playouts.
+    int best(SearchConfig config) {
 
         double lN = Math.log(games);
-        return children.stream()
-                .max(Comparator
-                        .comparing(p -> p.wins / (double) p.games + 1.41 * Math.sqrt(lN / p.games))).get();
+        int ans = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < children.size(); k++) {
+            Mct p = children.get(k);
+            if (p.proven == WON)
+                return k;
+            if (p.proven == LOST)
+                continue;
+            double value = p.wins / (double) p.games;
+            if (config.rave > 0 && amafGames != null && amafGames[k] > 0) {
+                double beta = Math.sqrt(config.rave / (3.0 * edges[k] + config.rave));
+                value = (1 - beta) * value + beta * amafWins[k] / (double) amafGames[k];
+            }
+            double score = value + config.exploration * Math.sqrt(lN / edges[k]);
+            if (score > bestScore) {
+                bestScore = score;
+                ans = k;
+            }
+        }
+        return ans;
 
 
     }
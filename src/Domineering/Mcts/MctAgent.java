@@ -1,15 +1,246 @@
 package Domineering.Mcts;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 public class MctAgent extends AI {
-    final static int N = 12;
-    final RolloutPolicy rp = new RolloutPolicy(N);
+    // milliseconds a lane ponders a board before going to its next one
+    static final long PONDER_SLICE = 25;
+    final SearchMode mode;
+    // search threads for all the boards of a message together
+    final int threads;
+    final int nodeCapacity;
+    final SearchEngine engine;
+    // engines[l] are the l engines searching l boards at once, sharing the threads
+    final SearchEngine[][] engines;
+    final ExecutorService lanes;
+    // prints the playouts/s of every move
+    boolean report = false;
+    // collects the garbage of a search right after it, rather than during the next one;
+    // off when several agents share the JVM
+    boolean gc = true;
+    // of the running ponder, null when there is none
+    private List<Future<?>> pondering;
+    private AtomicBoolean ponderStop;
+    // the clock each pondering lane runs on
+    private AtomicReferenceArray<SearchClock> ponderClocks;
+
+    public MctAgent() {
+        this(SearchMode.SEQUENTIAL, 1);
+    }
+
+    public MctAgent(SearchMode mode, int threads) {
+        this(mode, threads, SearchEngine.POOL_CAPACITY);
+    }
+
+    public MctAgent(SearchMode mode, int threads, int nodeCapacity) {
+        this(mode, threads, nodeCapacity, new SearchConfig());
+    }
+
+    public MctAgent(SearchMode mode, int threads, int nodeCapacity, SearchConfig config) {
+        this.mode = mode;
+        this.threads = threads;
+        this.nodeCapacity = nodeCapacity;
+        engine = new SearchEngine(mode, threads, nodeCapacity, config, SearchEngine.sessions());
+        engines = new SearchEngine[threads + 1][];
+        engines[1] = new SearchEngine[]{engine};
+        lanes = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "mcts-board");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void setMoveBudget(long millis) {
+        engine.budget = millis;
+    }
 
     @Override
     public Coordinate ai(char[][] board, Player player, String otherPlayer) {
+        return ai(board, player, otherPlayer, null);
+    }
+
+    @Override
+    public Coordinate ai(char[][] board, Player player, String otherPlayer, String game) {
+        stopPondering();
+        Coordinate ans = move(engine, Board.of(board), player, game);
+
+        // the pooled tree leaves no garbage behind
+        if (gc && mode != SearchMode.POOLED)
+            System.gc();
+        return ans;
+    }
+
+    // Boards are spread over up to threads lanes searching in parallel, each lane gets
+    // threads / lanes search threads and goes through its boards one after the other,
+    // sharing the time left between the boards it has left, so the time a board didn't
+    // need (decided or proven early) goes to the next ones.
+    // A board whose lane is late when the budget runs out is answered with any legal move.
+    @Override
+    public Coordinate[] ai(char[][][] boards, Player[] players, String[] otherPlayers, String[] games, long budget) {
+        Board[] ans = new Board[boards.length];
+        for (int k = 0; k < boards.length; k++) {
+            ans[k] = Board.of(boards[k]);
+        }
+        return ai(ans, players, otherPlayers, games, budget);
+    }
 
-        Coordinate ans = Mct.ai(board, player, rp);
+    @Override
+    public Coordinate[] ai(Board[] boards, Player[] players, String[] otherPlayers, String[] games, long budget) {
+        long deadline = System.nanoTime() + budget * 1000000;
+        stopPondering();
+        int l = Math.min(boards.length, threads);
+        SearchEngine[] lane = engines(l);
+        AtomicReferenceArray<Coordinate> moves = new AtomicReferenceArray<>(boards.length);
+        AtomicBoolean late = new AtomicBoolean();
 
-        System.gc();
+        List<Future<?>> futures = new ArrayList<>(l);
+        for (int k = 0; k < l; k++) {
+            SearchEngine e = lane[k];
+            int first = k;
+            futures.add(lanes.submit(() -> {
+                for (int b = first; b < boards.length && !late.get(); b += l) {
+                    e.budget = Math.max(1, (deadline - System.nanoTime()) / 1000000 / ((boards.length - b + l - 1) / l));
+                    moves.set(b, move(e, boards[b], players[b], games[b]));
+                }
+            }));
+        }
+        for (int k = 0; k < l; k++) {
+            try {
+                futures.get(k).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                late.set(true);
+                lane[k].stop();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        // The engines aren't thread safe and ponder() or the next ai() take them over, so
+        // the late lanes are waited for; stopped, they are done within a few milliseconds.
+        if (late.get())
+            join(futures);
+
+        Coordinate[] ans = new Coordinate[boards.length];
+        for (int b = 0; b < boards.length; b++) {
+            ans[b] = moves.get(b) != null ? moves.get(b) : anyMove(boards[b], players[b]);
+        }
+        if (gc && mode != SearchMode.POOLED)
+            System.gc();
         return ans;
     }
+
+    private static void join(List<Future<?>> futures) {
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // Searches the positions our moves leave to the opponents, in the trees kept for
+    // their games (see SearchEngine.ponder), so the answers to their replies start from
+    // warm subtrees, and are often decided at once. The boards are spread over the lanes
+    // like in ai(), each lane going round its boards PONDER_SLICE ms at a time.
+    @Override
+    public synchronized void ponder(Board[] boards, Player[] players, Coordinate[] moves, String[] games) {
+        stopPondering();
+        // the pool doesn't keep its tree between moves
+        if (mode == SearchMode.POOLED)
+            return;
+        List<Board> after = new ArrayList<>();
+        List<Integer> opponents = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (int b = 0; b < boards.length; b++) {
+            int turn = Player.V == players[b] ? 0 : 1;
+            if (games[b] == null || moves[b] == null)
+                continue;
+            long[] lines = boards[b].lines.clone();
+            Mct.apply(RolloutPolicy.move(moves[b].getX(), moves[b].getY()), turn, lines);
+            // the game is over
+            if (!Mct.hasMoves(lines, 1 - turn))
+                continue;
+            after.add(new Board(lines, boards[b].height));
+            opponents.add(1 - turn);
+            ids.add(games[b]);
+        }
+        if (after.isEmpty())
+            return;
+        int l = Math.min(after.size(), threads);
+        SearchEngine[] lane = engines(l);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReferenceArray<SearchClock> clocks = new AtomicReferenceArray<>(l);
+        List<Future<?>> futures = new ArrayList<>(l);
+        for (int k = 0; k < l; k++) {
+            SearchEngine e = lane[k];
+            int first = k;
+            futures.add(lanes.submit(() -> {
+                while (!stop.get()) {
+                    for (int b = first; b < after.size(); b += l) {
+                        SearchClock clock = new SearchClock(PONDER_SLICE * 1000000);
+                        // published before stop is read, so stopPondering() can't miss it
+                        clocks.set(first, clock);
+                        if (stop.get())
+                            return;
+                        e.ponder(after.get(b), opponents.get(b), ids.get(b), clock);
+                    }
+                }
+            }));
+        }
+        pondering = futures;
+        ponderStop = stop;
+        ponderClocks = clocks;
+    }
+
+    @Override
+    public synchronized void stopPondering() {
+        if (pondering == null)
+            return;
+        ponderStop.set(true);
+        for (int k = 0; k < ponderClocks.length(); k++) {
+            SearchClock clock = ponderClocks.get(k);
+            if (clock != null)
+                clock.stop();
+        }
+        try {
+            join(pondering);
+        } finally {
+            pondering = null;
+        }
+    }
+
+    private synchronized SearchEngine[] engines(int l) {
+        if (engines[l] == null) {
+            engines[l] = new SearchEngine[l];
+            for (int k = 0; k < l; k++) {
+                engines[l][k] = new SearchEngine(mode, threads / l, nodeCapacity, engine.config, engine.sessions);
+            }
+        }
+        return engines[l];
+    }
+
+    private Coordinate move(SearchEngine e, Board board, Player player, String game) {
+        int turn = Player.V == player ? 0 : 1;
+
+        int[] u = e.answer(board, turn, game);
+        if (report)
+            System.out.println(e.lastStats);
+        // a search that couldn't expand the root still has to answer
+        return u == null ? anyMove(board, player) : new Coordinate(u[0], u[1]);
+    }
+
+    private static Coordinate anyMove(Board board, Player player) {
+        int u = Mct.getMoves(board.lines, Player.V == player ? 0 : 1)[0];
+        return new Coordinate(RolloutPolicy.moveX(u), RolloutPolicy.moveY(u));
+    }
 }
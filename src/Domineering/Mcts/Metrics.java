@@ -0,0 +1,185 @@
+package Domineering.Mcts;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Counters of the searches of one thread, kept by its RolloutPolicy, summed over the
+// threads by SearchEngine after each move. In a build with ENABLED set, when the system
+// property domineering.metrics names a file, the engine appends a JSON line per move
+// to it, e.g.
+// {"game":"42;1","player":"V","empty":98,"source":"search","mode":"ROOT_PARALLEL",
+//  "threads":4,"ms":240,"iterations":10512,"playouts":10512,"reused":3100,"expanded":10230,
+//  "depth":{"max":9,"avg":4.1},"rollout":{"avg":31.7},
+//  "sampled":{"iterations":165,"select":1840,"rollout":21000,"backprop":210},
+//  "gc":{"count":1,"ms":3},"children":36,"root":[[5,4,1200,700],...],"move":[5,4]}
+// where the sampled phases are in ns per iteration and root lists the most visited
+// moves of the root with their games and wins.
+public class Metrics {
+    // false compiles the instrumentation out: javac drops the code guarded by a constant
+    // false. The competition build (Main, Client) keeps it false; set it to true to build
+    // the Benchmark or Arena runs that record metrics.
+    static final boolean ENABLED = false;
+    // one iteration out of SAMPLE has its phases timed
+    static final int SAMPLE = 64;
+    // root moves written, the most visited first
+    static final int TOP = 8;
+    // null when no file is named, or in a build without the instrumentation
+    static final PrintStream OUT = ENABLED ? open(System.getProperty("domineering.metrics")) : null;
+
+    long iterations;
+    long expanded;
+    long depths;
+    int maxDepth;
+    long rollouts;
+    long rolloutMoves;
+    long samples;
+    long selectNanos;
+    long rolloutNanos;
+    long backPropNanos;
+    // root moves packed with RolloutPolicy.move to {games, wins}, merged over the trees
+    final Map<Integer, int[]> root = new HashMap<>();
+
+    private static PrintStream open(String path) {
+        if (path == null)
+            return null;
+        try {
+            return new PrintStream(new FileOutputStream(path, true), true);
+        } catch (IOException e) {
+            System.err.println("metrics disabled, can't open " + path + ": " + e);
+            return null;
+        }
+    }
+
+    boolean timed(long iteration) {
+        return iteration % SAMPLE == 0;
+    }
+
+    // each phase returns the time it ended at, which the next one starts from
+    long select(long start) {
+        long now = System.nanoTime();
+        selectNanos += now - start;
+        return now;
+    }
+
+    long rollout(long start) {
+        long now = System.nanoTime();
+        rolloutNanos += now - start;
+        return now;
+    }
+
+    void backPropagate(long start) {
+        backPropNanos += System.nanoTime() - start;
+        ++samples;
+    }
+
+    // after an iteration from board down to the position leaf, fresh if it expanded a node
+    void iteration(long[] board, long[] leaf, boolean fresh) {
+        ++iterations;
+        if (fresh)
+            ++expanded;
+        int depth = (Board.empty(board) - Board.empty(leaf)) / 2;
+        depths += depth;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    void clear() {
+        iterations = expanded = depths = rollouts = rolloutMoves = 0;
+        samples = selectNanos = rolloutNanos = backPropNanos = 0;
+        maxDepth = 0;
+        root.clear();
+    }
+
+    void add(Metrics m) {
+        iterations += m.iterations;
+        expanded += m.expanded;
+        depths += m.depths;
+        maxDepth = Math.max(maxDepth, m.maxDepth);
+        rollouts += m.rollouts;
+        rolloutMoves += m.rolloutMoves;
+        samples += m.samples;
+        selectNanos += m.selectNanos;
+        rolloutNanos += m.rolloutNanos;
+        backPropNanos += m.backPropNanos;
+    }
+
+    // move packed with RolloutPolicy.move
+    void child(int move, int games, int wins) {
+        int[] s = root.computeIfAbsent(move, k -> new int[2]);
+        s[0] += games;
+        s[1] += wins;
+    }
+
+    // collections and milliseconds spent collecting since the start of the JVM
+    static long[] gc() {
+        long[] ans = new long[2];
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ans[0] += Math.max(0, bean.getCollectionCount());
+            ans[1] += Math.max(0, bean.getCollectionTime());
+        }
+        return ans;
+    }
+
+    // the line of a move
+    String json(String game, Board board, int player, SearchStats stats, long[] gc, int[] move) {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("{\"game\":").append(game == null ? "null" : quote(game));
+        sb.append(",\"player\":\"").append(player == 0 ? 'V' : 'H').append('"');
+        sb.append(",\"empty\":").append(board.empty());
+        sb.append(",\"source\":\"").append(stats.source).append('"');
+        sb.append(",\"mode\":\"").append(stats.mode).append('"');
+        sb.append(",\"threads\":").append(stats.threads);
+        sb.append(",\"ms\":").append(stats.nanos / 1000000);
+        sb.append(",\"iterations\":").append(iterations);
+        sb.append(",\"playouts\":").append(stats.playouts);
+        sb.append(",\"reused\":").append(stats.reused);
+        sb.append(",\"expanded\":").append(expanded);
+        sb.append(",\"depth\":{\"max\":").append(maxDepth)
+                .append(",\"avg\":").append(ratio(depths, iterations)).append('}');
+        sb.append(",\"rollout\":{\"avg\":").append(ratio(rolloutMoves, rollouts)).append('}');
+        sb.append(",\"sampled\":{\"iterations\":").append(samples)
+                .append(",\"select\":").append(samples == 0 ? 0 : selectNanos / samples)
+                .append(",\"rollout\":").append(samples == 0 ? 0 : rolloutNanos / samples)
+                .append(",\"backprop\":").append(samples == 0 ? 0 : backPropNanos / samples).append('}');
+        long[] now = gc();
+        sb.append(",\"gc\":{\"count\":").append(now[0] - gc[0])
+                .append(",\"ms\":").append(now[1] - gc[1]).append('}');
+        sb.append(",\"children\":").append(root.size());
+        List<Map.Entry<Integer, int[]>> children = new ArrayList<>(root.entrySet());
+        children.sort((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+        sb.append(",\"root\":[");
+        for (int k = 0; k < children.size() && k < TOP; k++) {
+            int u = children.get(k).getKey();
+            int[] s = children.get(k).getValue();
+            sb.append(k == 0 ? "[" : ",[").append(RolloutPolicy.moveX(u)).append(',').append(RolloutPolicy.moveY(u))
+                    .append(',').append(s[0]).append(',').append(s[1]).append(']');
+        }
+        sb.append(']');
+        sb.append(",\"move\":").append(move == null ? "null" : "[" + move[0] + "," + move[1] + "]");
+        return sb.append('}').toString();
+    }
+
+    private static String ratio(long a, long b) {
+        return b == 0 ? "0" : String.format(Locale.ROOT, "%.2f", a / (double) b);
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
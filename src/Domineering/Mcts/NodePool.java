@@ -0,0 +1,238 @@
+package Domineering.Mcts;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Struct-of-arrays search tree, allocated once and recycled for every move.
+// Node 0 is the root. The children of a node are reserved as one block the first
+// time it is expanded and made live one at a time; its move list is computed the
+// first time the search goes through it.
+// When the pool is exhausted nodes stop being expanded and the search keeps
+// sampling from the leaves it has. A pool holds at least the root and its children
+// on any board, so there is always a move to answer with.
+public class NodePool {
+    static final int NONE = -1;
+    // the root and the most moves a player can have, on the largest board
+    static final int MIN_CAPACITY = 1 + Board.MAX_WIDTH * (Board.MAX_HEIGHT - 1);
+    final int capacity;
+    final int moveCapacity;
+
+    final int[] parent;
+    // move that leads to the node, packed with RolloutPolicy.move
+    final int[] action;
+    final byte[] nextToMove;
+    final int[] games;
+    final int[] wins;
+    // children are firstChild .. firstChild + expanded - 1
+    final int[] firstChild;
+    final int[] expanded;
+    // legal moves are moves[moveStart .. moveStart + moveCount - 1]
+    final int[] moveStart;
+    final int[] moveCount;
+    final int[] moves;
+    int size;
+    int movesSize;
+    // the moves of the root are reduced by its symmetries (see Symmetry.reduce), so its
+    // grandchildren can't take their moves from it
+    boolean reduced;
+
+    NodePool(int capacity, int moveCapacity) {
+        if (capacity < MIN_CAPACITY || moveCapacity < MIN_CAPACITY)
+            throw new IllegalArgumentException("a pool must hold at least " + MIN_CAPACITY + " nodes and moves: "
+                    + capacity + ", " + moveCapacity);
+        this.capacity = capacity;
+        this.moveCapacity = moveCapacity;
+        parent = new int[capacity];
+        action = new int[capacity];
+        nextToMove = new byte[capacity];
+        games = new int[capacity];
+        wins = new int[capacity];
+        firstChild = new int[capacity];
+        expanded = new int[capacity];
+        moveStart = new int[capacity];
+        moveCount = new int[capacity];
+        moves = new int[moveCapacity];
+    }
+
+    // forgets the previous tree and makes a new root
+    void reset(long[] board, int player) {
+        size = 0;
+        movesSize = 0;
+        int root = newNode(NONE, NONE, player);
+        computeMoves(root, board);
+        short[] all = new short[moveCount[root]];
+        for (int k = 0; k < all.length; k++) {
+            all[k] = (short) moves[moveStart[root] + k];
+        }
+        short[] kept = Symmetry.reduce(all, board, player);
+        reduced = kept != all;
+        for (int k = 0; k < kept.length; k++) {
+            moves[moveStart[root] + k] = kept[k];
+        }
+        moveCount[root] = kept.length;
+    }
+
+    private int newNode(int parent, int action, int player) {
+        int n = size++;
+        this.parent[n] = parent;
+        this.action[n] = action;
+        nextToMove[n] = (byte) player;
+        games[n] = 0;
+        wins[n] = 0;
+        firstChild[n] = NONE;
+        expanded[n] = 0;
+        moveStart[n] = NONE;
+        moveCount[n] = 0;
+        return n;
+    }
+
+    void search(long[] b, RolloutPolicy rPolicy, SearchConfig config, SearchClock clock) {
+        long[] cb = new long[b.length];
+        Metrics m = rPolicy.metrics;
+        for (long it = 0, check = 1; ; ++it) {
+            if (it == check) {
+                long next = clock.next(it);
+                if (next == 0 || decided(clock, it * config.batch))
+                    break;
+                check = it + next;
+            }
+
+            boolean timed = Metrics.ENABLED && m.timed(it);
+            long t = timed ? System.nanoTime() : 0;
+            Mct.copy(b, cb);
+            int leaf = select(cb, config);
+            if (timed)
+                t = m.select(t);
+            boolean fresh = games[leaf] == 0;
+            int vWins = rPolicy.rollouts(cb, nextToMove[leaf], config.batch);
+            if (timed)
+                t = m.rollout(t);
+            backPropagate(leaf, vWins, config.batch);
+            if (timed)
+                m.backPropagate(t);
+            if (Metrics.ENABLED)
+                m.iteration(b, cb, fresh);
+
+        }
+    }
+
+    int select(long[] board, SearchConfig config) {
+        int curr = 0;
+        for (; ; ) {
+            if (moveStart[curr] == NONE && !computeMoves(curr, board))
+                return curr;
+            if (moveCount[curr] == 0)
+                return curr;
+            if (expanded[curr] < moveCount[curr])
+                return expand(curr, board);
+            curr = best(curr, config);
+            Mct.apply(action[curr], nextToMove[parent[curr]], board);
+        }
+    }
+
+    // returns n itself when the pool can't take its children
+    private int expand(int n, long[] board) {
+        int count = moveCount[n];
+        if (firstChild[n] == NONE) {
+            if (size + count > capacity)
+                return n;
+            firstChild[n] = size;
+            for (int k = 0; k < count; k++) {
+                newNode(n, NONE, 1 - nextToMove[n]);
+            }
+        }
+        int e = expanded[n];
+        int start = moveStart[n];
+        int i = ThreadLocalRandom.current().nextInt(count - e) + e;
+
+        //swap the choice to the front
+        int tmp = moves[start + i];
+        moves[start + i] = moves[start + e];
+        moves[start + e] = tmp;
+        ++expanded[n];
+
+        int child = firstChild[n] + e;
+        action[child] = tmp;
+        Mct.apply(tmp, nextToMove[n], board);
+        return child;
+    }
+
+    // filters the grandparent's moves when there is one, false if the pool is full
+    private boolean computeMoves(int n, long[] board) {
+        int player = nextToMove[n];
+        int N = board.length;
+        int start = movesSize;
+        int end = start;
+        int p = parent[n];
+        int g = p == NONE ? NONE : parent[p];
+        if (g != NONE && !(g == 0 && reduced)) {
+            if (end + moveCount[g] > moveCapacity)
+                return false;
+            for (int k = moveStart[g], last = k + moveCount[g]; k < last; k++) {
+                if (Mct.legal(board, moves[k], player))
+                    moves[end++] = moves[k];
+            }
+        } else {
+            for (int i = 0; i + player < N; i++) {
+                long play = Mct.anchors(board, i, player);
+                if (end + Long.bitCount(play) > moveCapacity)
+                    return false;
+                for (; play != 0; play &= play - 1) {
+                    moves[end++] = RolloutPolicy.move(i, Long.numberOfTrailingZeros(play));
+                }
+            }
+        }
+        moveStart[n] = start;
+        moveCount[n] = end - start;
+        movesSize = end;
+        return true;
+    }
+
+    // games playouts of which V won vWins
+    void backPropagate(int n, int vWins, int games) {
+        for (; n != NONE; n = parent[n]) {
+            wins[n] += nextToMove[n] == 0 ? games - vWins : vWins;
+            this.games[n] += games;
+        }
+    }
+
+    int best(int n, SearchConfig config) {
+        double lN = Math.log(games[n]);
+        int ans = NONE;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = firstChild[n], last = c + expanded[n]; c < last; c++) {
+            double score = wins[c] / (double) games[c] + config.exploration * Math.sqrt(lN / games[c]);
+            if (score > bestScore) {
+                bestScore = score;
+                ans = c;
+            }
+        }
+        return ans;
+    }
+
+    private boolean decided(SearchClock clock, long iterations) {
+        int best = 0;
+        int second = 0;
+        for (int c = firstChild[0], last = c + expanded[0]; c < last; c++) {
+            if (games[c] > best) {
+                second = best;
+                best = games[c];
+            } else if (games[c] > second) {
+                second = games[c];
+            }
+        }
+        return clock.decided(best, second, iterations);
+    }
+
+    int[] bestChild() {
+        int ans = NONE;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = firstChild[0], last = c + expanded[0]; c < last; c++) {
+            double score = Mct.value((byte) 0, games[c], wins[c], games[c]);
+            if (score > bestScore) {
+                bestScore = score;
+                ans = c;
+            }
+        }
+        return ans == NONE ? null : Mct.coordinates(action[ans]);
+    }
+}
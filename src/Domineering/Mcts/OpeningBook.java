@@ -0,0 +1,116 @@
+package Domineering.Mcts;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.SortedMap;
+
+// Moves of the first plies, found offline by long searches (see BookBuilder). The file is
+// a header followed by the entries sorted by key, each the key of a position, the move
+// found for it and the games and wins of that move in the search. It is mapped read-only,
+// so opening it parses nothing and a lookup is a binary search in place.
+// A position is keyed by its canonical form (see Symmetry), which depends on neither the
+// board size nor the orientation: the 8 symmetric positions share an entry, whose move
+// is that of the canonical form.
+public class OpeningBook {
+    static final int MAGIC = 0x444F4D42;
+    // 3 since the moves are packed in 12 bits
+    static final int VERSION = 3;
+    // magic, version, entries
+    static final int HEADER = 12;
+    static final int ENTRY = 20;
+    final ByteBuffer data;
+    final int size;
+
+    private OpeningBook(ByteBuffer data) {
+        this.data = data;
+        this.size = data.getInt(8);
+    }
+
+    static OpeningBook open(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.capacity() < HEADER || data.getInt(0) != MAGIC || data.getInt(4) != VERSION
+                    || data.capacity() != HEADER + (long) ENTRY * data.getInt(8))
+                throw new IOException("not an opening book: " + path);
+            return new OpeningBook(data);
+        }
+    }
+
+    static long key(long[] board, int player) {
+        return new Symmetry(board, player).key;
+    }
+
+    // the move of the book for the position, null if it has none
+    int[] move(long[] board, int player) {
+        Symmetry canonical = new Symmetry(board, player);
+        int e = find(canonical.key);
+        if (e == -1)
+            return null;
+        int[] ans = canonical.fromCanonical(move(e), player);
+        // a colliding key may give a move that doesn't fit
+        if (ans == null || !Board.check(board, ans[0], ans[1]) || !Board.check(board, ans[0] + player, ans[1] + 1 - player))
+            return null;
+        return ans;
+    }
+
+    // index of the entry of key, -1 if there is none
+    int find(long key) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long k = key(mid);
+            if (k < key)
+                lo = mid + 1;
+            else if (k > key)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    long key(int e) {
+        return data.getLong(HEADER + e * ENTRY);
+    }
+
+    // packed with RolloutPolicy.move
+    int move(int e) {
+        return data.getInt(HEADER + e * ENTRY + 8);
+    }
+
+    int games(int e) {
+        return data.getInt(HEADER + e * ENTRY + 12);
+    }
+
+    int wins(int e) {
+        return data.getInt(HEADER + e * ENTRY + 16);
+    }
+
+    // entries maps the keys to {move, games, wins}. The file is replaced rather than
+    // overwritten, so agents that have mapped the old one keep reading it safely.
+    static void write(String path, SortedMap<Long, int[]> entries) throws IOException {
+        String tmp = path + ".tmp";
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<Long, int[]> e : entries.entrySet()) {
+                out.writeLong(e.getKey());
+                for (int v : e.getValue()) {
+                    out.writeInt(v);
+                }
+            }
+        }
+        Files.move(Paths.get(tmp), Paths.get(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,48 @@
+package Domineering.Mcts;
+
+// How the rollouts of a RolloutPolicy pick their moves, see SearchConfig.playout.
+// Whatever the playout, SearchConfig.depth can stop the rollouts early.
+enum Playout {
+    // the 1-ply greedy player of RolloutPolicy at every ply
+    HEAVY {
+        int move(RolloutPolicy rp, long[] board, int player, int ply) {
+            return rp.greedyMove(board, player);
+        }
+    },
+    // uniformly random moves, drawn from the anchors of the lines
+    RANDOM {
+        int move(RolloutPolicy rp, long[] board, int player, int ply) {
+            return rp.randomMove(board, player);
+        }
+
+        boolean greedy(int ply, SearchConfig config) {
+            return false;
+        }
+    },
+    // greedy, but random with probability SearchConfig.epsilon
+    EPSILON_GREEDY {
+        int move(RolloutPolicy rp, long[] board, int player, int ply) {
+            return rp.rand.nextDouble() < rp.config.epsilon ? rp.randomMove(board, player)
+                    : rp.greedyMove(board, player);
+        }
+    },
+    // greedy for the first SearchConfig.heavyPlies plies, random after
+    HEAVY_FIRST {
+        int move(RolloutPolicy rp, long[] board, int player, int ply) {
+            return ply < rp.config.heavyPlies ? rp.greedyMove(board, player) : rp.randomMove(board, player);
+        }
+
+        boolean greedy(int ply, SearchConfig config) {
+            return ply < config.heavyPlies;
+        }
+    };
+
+    // the move of player at ply plies into the rollout, NO_MOVE if it has none
+    abstract int move(RolloutPolicy rp, long[] board, int player, int ply);
+
+    // false once no ply from this one on is greedy, so the rollout can stop keeping
+    // its IncrementalEvaluator up to date
+    boolean greedy(int ply, SearchConfig config) {
+        return true;
+    }
+}
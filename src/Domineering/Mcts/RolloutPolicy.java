@@ -1,192 +1,231 @@
 package Domineering.Mcts;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 public class RolloutPolicy {
-    static final Random rand = new Random();
-    public final short[] count;
-    final ArrayList<Coordinate> goodMoves = new ArrayList<>();
-    final int N;
-
-    RolloutPolicy(int N) {
-
-        this.N = N;
-        count = new short[1 << N];
-        for (int i = 0; i < count.length; i++) {
-            count[i] = (short) count(i);
-        }
-
+    // returned by the players when they cannot move anymore
+    static final int NO_MOVE = -1;
+    // one policy per search thread, so each gets its own generator
+    final Random rand = new Random();
+    // playout, its parameters and the depth of the rollouts
+    final SearchConfig config;
+    // moves sharing the best score, packed with move(i, j), reused for every ply
+    // and grown to the largest board seen
+    int[] goodMoves = new int[0];
+    // tracks the board of the running rollout
+    final IncrementalEvaluator evaluator;
+    // board of the rollouts of a batch
+    long[] scratch = new long[0];
+    // of the searches of the thread using this policy
+    final Metrics metrics = new Metrics();
+    // when record is set, a rollout keeps the moves it plays, packed, in played[0 .. playedCount)
+    boolean record = false;
+    int[] played = new int[0];
+    int playedCount;
+
+    RolloutPolicy() {
+        this(new SearchConfig());
     }
 
+    RolloutPolicy(SearchConfig config) {
+        this.config = config;
+        evaluator = new IncrementalEvaluator();
 
-    // counts the number of non-overlapping moves in a line
-    static int count(int line) {
-
-        int count = 0;
-
-        while (line != 0) {
-            int lsb = line & -line;
-            line &= ~(lsb | (lsb << 1));
-            ++count;
-
-        }
-
-        return count;
     }
 
-    static int countSafeH(char[] board) {
+    static int countSafeH(long[] board) {
 
         int k = 0;
-        int old = 0;
+        long old = 0;
 
 
         for (int i = 0; i < board.length - 1; ++i) {
-            int x = ~board[i] & ~board[i + 1];
-            int v = (board[i] & board[i + 1]) & (x >>> 1) & ((x << 1) + 1);
-            old = v & ~old;
-            k += Integer.bitCount(old);
+            old = safeH(board, i, old);
+            k += Long.bitCount(old);
         }
 
         return k;
 
     }
 
-    public static char[] transform(boolean[][] board) {
-        char[] ans = new char[board.length];
-        for (int i = 0; i < board.length; i++) {
-            for (int j = 0; j < board[i].length; j++) {
-                if (!board[i][j]) ans[i] |= 1 << j;
-            }
-        }
-        return ans;
+    // safe horizontal moves on lines i, i+1 not overlapping with the ones (old) on lines i-1, i
+    static long safeH(long[] board, int i, long old) {
+        long x = ~board[i] & ~board[i + 1];
+        long v = (board[i] & board[i + 1]) & (x >>> 1) & ((x << 1) + 1);
+        return v & ~old;
     }
 
-    static void set(char[] ans, int i, int j) {
-        ans[i] |= (1 << j);
+    // A move is the index of its anchor cell, the one with the smaller coordinates, like
+    // the cells of Zobrist. The boards have fewer than 64 lines and rows, so it fits a
+    // short, which is how the search trees keep them.
+    static int move(int i, int j) {
+        return i << 6 | j;
     }
 
-    static void unset(char[] ans, int i, int j) {
-        ans[i] &= ~(1 << j);
+    static int moveX(int move) {
+        return move >>> 6;
     }
 
-    static boolean check(char[] ans, int i, int j) {
-        return (ans[i] & (1 << j)) != 0;
+    static int moveY(int move) {
+        return move & 63;
     }
 
-    public static int countHoles(char[] board) {
-        int N = board.length;
-        int k = Integer.bitCount(board[0] & ~(board[0] >>> 1) & ~(board[0] << 1) & ~board[1]);
-        k += Integer.bitCount(board[N - 1] & ~(board[N - 1] >>> 1) & ~(board[N - 1] << 1) & ~board[N - 2]);
-        for (int i = 1; i < N - 1; ++i) {
-
-            int line = board[i] & ~(board[i] >>> 1) & ~(board[i] << 1);
-            k += Integer.bitCount(~board[i - 1] & line & ~board[i + 1]);
+    // the move plus other gives its second cell
+    static int other(int player) {
+        return player == 0 ? 1 : 1 << 6;
+    }
 
+    public static int countHoles(long[] board) {
+        int k = 0;
+        for (int i = 0; i < board.length; ++i) {
+            k += holes(board, i);
         }
         return k;
     }
 
-    static int countMovesH(char[] ans) {
+    // empty cells of line i with no empty neighbour
+    static int holes(long[] board, int i) {
+        int N = board.length;
+        long line = board[i] & ~(board[i] >>> 1) & ~(board[i] << 1);
+        if (i > 0)
+            line &= ~board[i - 1];
+        if (i < N - 1)
+            line &= ~board[i + 1];
+        return Long.bitCount(line);
+    }
+
+    static int countMovesH(long[] ans) {
         int j = 0;
-        int old = 0;
+        long old = 0;
         for (int i = 0; i < ans.length - 1; i++) {
-            j += Integer.bitCount(old = ans[i] & ans[i + 1] & ~old);
+            j += Long.bitCount(old = movesH(ans, i, old));
         }
         return j;
     }
 
-    int countSafeV(char[] board) {
-
-        int v = board[0] & (board[0] >>> 1) & (~board[1]) & ((~board[1]) >>> 1);
-
-        int sum = count[v];
-        v = board[N - 1] & (board[N - 1] >>> 1) & (~board[N - 2]) & ((~board[N - 2]) >>> 1);
-        sum += count[v];
-        for (int i = 1; i < N - 1; ++i) {
-            v = board[i] & (board[i] >>> 1) & (~board[i + 1]) & ((~board[i + 1]) >>> 1)
-                    & (~board[i - 1]) & ((~board[i - 1]) >>> 1);
-
-            sum += count[v];
-
+    // horizontal moves on lines i, i+1 not overlapping with the ones (old) on lines i-1, i
+    static long movesH(long[] ans, int i, long old) {
+        return ans[i] & ans[i + 1] & ~old;
+    }
 
+    static int countSafeV(long[] board) {
+        int sum = 0;
+        for (int i = 0; i < board.length; ++i) {
+            sum += safeV(board, i);
         }
         return sum;
+    }
 
-
+    // vertical moves of line i that the horizontal player can't take
+    static int safeV(long[] board, int i) {
+        long v = board[i] & (board[i] >>> 1);
+        if (i > 0)
+            v &= (~board[i - 1]) & ((~board[i - 1]) >>> 1);
+        if (i < board.length - 1)
+            v &= (~board[i + 1]) & ((~board[i + 1]) >>> 1);
+        return Board.count(v);
     }
 
-    private Coordinate horizentalPlayer(char[] board, ArrayList<Coordinate> goodMoves) {
+    private int horizentalPlayer(long[] board) {
         int bestScore = Integer.MIN_VALUE;
-        for (int i = 0; i < N - 1; ++i) {
-            int play = board[i] & board[i + 1];
-            for (int j = 0; j < N; ++j) {
-                if ((play & (1 << j)) != 0) {
-                    unset(board, i, j);
-                    unset(board, i + 1, j);
-                    int curr = evaluateMove(board, Player.H);
-                    if (curr >= bestScore) {
-                        if (curr > bestScore) {
-                            bestScore = curr;
-                            goodMoves.clear();
-                        }
-                        goodMoves.add(new Coordinate(i, j));
+        int size = 0;
+        reserve(board);
+        for (int i = 0; i < board.length - 1; ++i) {
+            for (long play = board[i] & board[i + 1]; play != 0; play &= play - 1) {
+                int j = Long.numberOfTrailingZeros(play);
+                Board.unset(board, i, j);
+                Board.unset(board, i + 1, j);
+                int curr = evaluator.evaluate(i, i + 1, Player.H);
+                if (curr >= bestScore) {
+                    if (curr > bestScore) {
+                        bestScore = curr;
+                        size = 0;
                     }
-                    set(board, i, j);
-                    set(board, i + 1, j);
-
+                    goodMoves[size++] = move(i, j);
                 }
+                Board.set(board, i, j);
+                Board.set(board, i + 1, j);
 
             }
 
 
         }
-        if (goodMoves.isEmpty())
-            return new Coordinate(-1, -1);
+        if (size == 0)
+            return NO_MOVE;
 
 
-        return goodMoves.get(rand.nextInt(goodMoves.size()));
+        return goodMoves[rand.nextInt(size)];
     }
 
-    public Coordinate verticalPlayer(char[] board, ArrayList<Coordinate> goodMoves) {
+    public int verticalPlayer(long[] board) {
 
         int bestScore = Integer.MIN_VALUE;
-        for (int i = 0; i < N; ++i) {
-            int play = (board[i] & (board[i] >>> 1));
-            for (int j = 0; j < N - 1; ++j) {
-                if ((play & (1 << j)) != 0) {
-                    unset(board, i, j);
-                    unset(board, i, j + 1);
-                    int curr = evaluateMove(board, Player.V);
-                    if (curr >= bestScore) {
-                        if (curr > bestScore) {
-                            bestScore = curr;
-                            goodMoves.clear();
-                        }
-                        goodMoves.add(new Coordinate(i, j));
+        int size = 0;
+        reserve(board);
+        for (int i = 0; i < board.length; ++i) {
+            for (long play = board[i] & (board[i] >>> 1); play != 0; play &= play - 1) {
+                int j = Long.numberOfTrailingZeros(play);
+                Board.unset(board, i, j);
+                Board.unset(board, i, j + 1);
+                int curr = evaluator.evaluate(i, i, Player.V);
+                if (curr >= bestScore) {
+                    if (curr > bestScore) {
+                        bestScore = curr;
+                        size = 0;
                     }
-                    set(board, i, j);
-                    set(board, i, j + 1);
-
+                    goodMoves[size++] = move(i, j);
                 }
+                Board.set(board, i, j);
+                Board.set(board, i, j + 1);
 
             }
 
         }
-        if (goodMoves.isEmpty())
-            return new Coordinate(-1, -1);
+        if (size == 0)
+            return NO_MOVE;
 
 
-        return goodMoves.get(rand.nextInt(goodMoves.size()));
+        return goodMoves[rand.nextInt(size)];
 
     }
 
-    public int evaluateMove(char[] board, Player player) {
-        int turn = player == Player.H ? 1 : -1;
+    // the move of the greedy players, which need the evaluator to track the board
+    int greedyMove(long[] board, int player) {
+        return player == 0 ? verticalPlayer(board) : horizentalPlayer(board);
+    }
+
+    // a uniformly random move of player, NO_MOVE if it has none: the anchors of the
+    // lines are counted, then the r-th one is taken
+    int randomMove(long[] board, int player) {
+        int count = 0;
+        for (int i = 0; i + player < board.length; i++) {
+            count += Long.bitCount(Mct.anchors(board, i, player));
+        }
+        if (count == 0)
+            return NO_MOVE;
+        int r = rand.nextInt(count);
+        for (int i = 0; ; i++) {
+            long play = Mct.anchors(board, i, player);
+            int c = Long.bitCount(play);
+            if (r < c) {
+                for (; r > 0; r--) {
+                    play &= play - 1;
+                }
+                return move(i, Long.numberOfTrailingZeros(play));
+            }
+            r -= c;
+        }
+    }
+
+    public int evaluateMove(long[] board, Player player) {
         int ans = (countMovesH(board) - countMovesV(board))
                 + (countSafeH(board) - countSafeV(board));
 
-        int holes = countHoles(board);
+        return score(ans, countHoles(board), player);
+    }
+
+    static int score(int ans, int holes, Player player) {
+        int turn = player == Player.H ? 1 : -1;
 
         int parity = ((holes + 1) / 2) % 2;
         int holeScore = 0;
@@ -201,38 +240,57 @@ public class RolloutPolicy {
         return turn * 11 * ans + holeScore;
     }
 
-    int countMovesV(char[] ans) {
+    static int countMovesV(long[] ans) {
         int j = 0;
         for (int i = 0; i < ans.length; i++) {
-            j += count[ans[i] & (ans[i] << 1)];
+            j += movesV(ans, i);
         }
         return j;
 
     }
 
-    void print(char[] c) {
-        boolean[][] n = new boolean[N][N];
-        for (int i = 0; i < N; ++i)
-            for (int j = 0; j < N; ++j) {
-                n[i][j] = (c[i] & (1 << j)) != 0;
-            }
-        Mct.printBoard(n);
+    static int movesV(long[] ans, int i) {
+        return Board.count(ans[i] & (ans[i] << 1));
     }
 
-    int rollout(char[] board, int nextToMove) {
+    // a line of 64 cells can't hold more than 64 moves of one player
+    private void reserve(long[] board) {
+        if (goodMoves.length < board.length << 6)
+            goodMoves = new int[board.length << 6];
+    }
 
+    int rollout(long[] board, int nextToMove) {
+        Playout playout = config.playout;
+        boolean tracked = playout.greedy(0, config);
+        if (tracked)
+            evaluator.reset(board);
+        if (Metrics.ENABLED)
+            ++metrics.rollouts;
+        if (record) {
+            playedCount = 0;
+            if (played.length < board.length << 6)
+                played = new int[board.length << 6];
+        }
 
-        for (; ; ) {
+        for (int ply = 0; ; ply++) {
+            // a finished game keeps its real result
+            if (ply == config.depth && ply > 0 && Mct.hasMoves(board, nextToMove))
+                return leader(board, tracked);
+            tracked = tracked && playout.greedy(ply, config);
 
-            Coordinate u = nextToMove == 0 ?
-                    verticalPlayer(board, goodMoves)
-                    : horizentalPlayer(board, goodMoves);
+            int u = playout.move(this, board, nextToMove, ply);
 
-            if (u.getY() == -1)
+            if (u == NO_MOVE)
                 break;
 
-            goodMoves.clear();
-            apply(board, u, nextToMove);
+            if (tracked)
+                apply(board, u, nextToMove);
+            else
+                Mct.apply(u, nextToMove, board);
+            if (Metrics.ENABLED)
+                ++metrics.rolloutMoves;
+            if (record)
+                played[playedCount++] = u;
 
 
             nextToMove = 1 - nextToMove;
@@ -244,12 +302,33 @@ public class RolloutPolicy {
 
     }
 
-    void apply(char[] board, Coordinate u, int nextToMove) {
-        int i = u.getX();
-        int j = u.getY();
+    // the player the evaluation favours, where a truncated rollout stops
+    int leader(long[] board, boolean tracked) {
+        if (tracked)
+            return evaluator.evaluate(Player.V) > evaluator.evaluate(Player.H) ? 0 : 1;
+        return evaluateMove(board, Player.V) > evaluateMove(board, Player.H) ? 0 : 1;
+    }
+
+    // k rollouts from the same position, board is left as it is; returns the wins of V
+    int rollouts(long[] board, int nextToMove, int k) {
+        if (scratch.length != board.length)
+            scratch = new long[board.length];
+        int ans = 0;
+        for (int r = 0; r < k; r++) {
+            System.arraycopy(board, 0, scratch, 0, board.length);
+            if (rollout(scratch, nextToMove) == 0)
+                ++ans;
+        }
+        return ans;
+    }
+
+    void apply(long[] board, int u, int nextToMove) {
+        int i = moveX(u);
+        int j = moveY(u);
 
-        unset(board, i, j);
-        unset(board, i + nextToMove, j + 1 - nextToMove);
+        Board.unset(board, i, j);
+        Board.unset(board, i + nextToMove, j + 1 - nextToMove);
+        evaluator.update(i, i + nextToMove);
 
     }
 }
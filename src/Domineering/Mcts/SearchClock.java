@@ -0,0 +1,48 @@
+package Domineering.Mcts;
+
+// Deadline of one search. The clock is only read every few iterations, as many as
+// fit in CHECK nanoseconds at the rate measured so far.
+public class SearchClock {
+    static final long CHECK = 1000000;
+    static final long MAX_INTERVAL = 1024;
+    final long start;
+    final long deadline;
+    volatile boolean stopped = false;
+
+    SearchClock(long budget) {
+        start = System.nanoTime();
+        deadline = start + budget;
+    }
+
+    // iterations to run before asking again, 0 once the search has to stop
+    long next(long iterations) {
+        long now = System.nanoTime();
+        if (stopped || now >= deadline)
+            return 0;
+        return Math.max(1, Math.min(MAX_INTERVAL, iterations * CHECK / Math.max(1, now - start)));
+    }
+
+    // true when the child with the second most visits can't catch up with the first one
+    // in the iterations left at the current rate
+    boolean decided(int best, int second, long iterations) {
+        if (iterations == 0)
+            return false;
+        long now = System.nanoTime();
+        double left = iterations * (double) (deadline - now) / Math.max(1, now - start);
+        return best - second > left;
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    // A clock for the time left on this one, started now, so that a search following
+    // the EndgameSolver measures its own rate: the solver's time would make next() and
+    // decided() expect almost no iterations left.
+    SearchClock rest() {
+        SearchClock ans = new SearchClock(deadline - System.nanoTime());
+        if (stopped)
+            ans.stop();
+        return ans;
+    }
+}
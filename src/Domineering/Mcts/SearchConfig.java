@@ -0,0 +1,94 @@
+package Domineering.Mcts;
+
+// Tunable parameters of the search, shared by all the searches of an agent.
+public class SearchConfig {
+    // weight of the exploration term of UCT
+    double exploration = 1.41;
+    // positions with at most this many empty cells are given to the EndgameSolver first,
+    // 0 to always search
+    int endgame = 40;
+    // consulted before any search, null for none
+    OpeningBook book;
+    // rollouts from each selected leaf, propagated together: fewer tree walks per
+    // playout, but the tree grows K times slower. Stays 1: at 100 ms a move in the
+    // Arena, batches of 4 and of 16 both win only 27.5% [16%, 43%] of 40 games against
+    // it. On 12x12 the rollouts dominate, so they run at most 15% more playouts
+    // (Benchmark), which doesn't make up for the smaller tree.
+    int batch = 1;
+    // RAVE equivalence parameter: the child visits at which the AMAF value weighs as
+    // much as the child's own, 0 for plain UCT (see Mct.best). Off since it loses to
+    // plain UCT in the Arena: playouts keep the safe moves for last, so AMAF credits
+    // the very moves that should wait.
+    int rave = 0;
+    // Progressive widening, 0 to expand every move: a node only expands its width best
+    // moves, by RolloutPolicy.evaluateMove, plus games^widening more as it gets visits.
+    // Each child then starts with prior virtual games, won in proportion to its score.
+    // Wins 95% or more against expanding every move in the Arena at 100 ms a move.
+    // Only the Mct searches use it.
+    int width = 5;
+    double widening = 0.5;
+    int prior = 10;
+
+    // moves of the rollouts, see Playout, with the chance of a random move of
+    // EPSILON_GREEDY and the greedy plies of HEAVY_FIRST. The heavy rollouts stay: at
+    // 100 ms a move the cheaper ones lose to them in the Arena even with 20 to 60 times
+    // as many playouts, random moves don't tell the safe moves from the others.
+    Playout playout = Playout.HEAVY;
+    double epsilon = 0.1;
+    int heavyPlies = 8;
+    // plies after which a rollout stops and the side RolloutPolicy.evaluateMove favours
+    // wins, 0 to play to the end
+    int depth = 0;
+
+    SearchConfig exploration(double c) {
+        exploration = c;
+        return this;
+    }
+
+    SearchConfig endgame(int emptyCells) {
+        endgame = emptyCells;
+        return this;
+    }
+
+    SearchConfig book(OpeningBook book) {
+        this.book = book;
+        return this;
+    }
+
+    SearchConfig batch(int k) {
+        batch = k;
+        return this;
+    }
+
+    SearchConfig rave(int k) {
+        rave = k;
+        return this;
+    }
+
+    SearchConfig widening(int width, double exponent, int prior) {
+        this.width = width;
+        this.widening = exponent;
+        this.prior = prior;
+        return this;
+    }
+
+    SearchConfig playout(Playout p) {
+        playout = p;
+        return this;
+    }
+
+    SearchConfig epsilon(double e) {
+        epsilon = e;
+        return this;
+    }
+
+    SearchConfig heavyPlies(int plies) {
+        heavyPlies = plies;
+        return this;
+    }
+
+    SearchConfig depth(int plies) {
+        depth = plies;
+        return this;
+    }
+}
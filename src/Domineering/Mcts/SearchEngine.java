@@ -0,0 +1,275 @@
+package Domineering.Mcts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SearchEngine {
+    // milliseconds of search per move, unless told otherwise by setBudget
+    static final long BUDGET = 270;
+    // nodes of the POOLED tree, each expanded node also takes its moves from a buffer 8 times as large
+    static final int POOL_CAPACITY = 1 << 18;
+    // games whose trees are kept for the next move, the least recently played are dropped
+    static final int SESSIONS = 32;
+    // slots of the transposition table of each Mct tree, 0 to search plain trees
+    static final int TT_SIZE = 1 << 16;
+    final SearchMode mode;
+    final int threads;
+    final RolloutPolicy[] policies;
+    final ExecutorService pool;
+    final NodePool nodes;
+    final TranspositionTable[] tables;
+    final EndgameSolver solver = new EndgameSolver();
+    final SearchConfig config;
+    // may be shared by engines searching the boards of the same games
+    final Map<String, SearchSession> sessions;
+    volatile long budget = BUDGET;
+    // clock of the running search
+    private volatile SearchClock clock;
+    SearchStats lastStats;
+
+    SearchEngine(SearchMode mode, int threads) {
+        this(mode, threads, POOL_CAPACITY);
+    }
+
+    SearchEngine(SearchMode mode, int threads, int nodeCapacity) {
+        this(mode, threads, nodeCapacity, new SearchConfig(), sessions());
+    }
+
+    // an LRU map of the games whose trees are kept
+    static Map<String, SearchSession> sessions() {
+        return Collections.synchronizedMap(
+                new LinkedHashMap<String, SearchSession>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, SearchSession> eldest) {
+                        return size() > SESSIONS;
+                    }
+                });
+    }
+
+    SearchEngine(SearchMode mode, int threads, int nodeCapacity, SearchConfig config,
+                 Map<String, SearchSession> sessions) {
+        this.mode = mode;
+        this.config = config;
+        this.sessions = sessions;
+        this.threads = mode == SearchMode.SEQUENTIAL || mode == SearchMode.POOLED ? 1 : threads;
+        nodes = mode == SearchMode.POOLED ? new NodePool(nodeCapacity, 8 * nodeCapacity) : null;
+        policies = new RolloutPolicy[this.threads];
+        tables = new TranspositionTable[this.threads];
+        for (int i = 0; i < policies.length; i++) {
+            policies[i] = new RolloutPolicy(config);
+            if (TT_SIZE > 0 && (mode == SearchMode.SEQUENTIAL || mode == SearchMode.ROOT_PARALLEL))
+                tables[i] = new TranspositionTable(TT_SIZE);
+        }
+        pool = this.threads > 1 ? Executors.newFixedThreadPool(this.threads, r -> {
+            Thread t = new Thread(r, "mcts-worker");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    int[] answer(Board board, int player) {
+        return answer(board, player, null);
+    }
+
+    // game identifies the game for the tree reuse, null to always start from scratch
+    int[] answer(Board board, int player, String game) {
+        long start = System.nanoTime();
+        long[] b = board.lines;
+        SearchClock clock = TimeManager.clock(budget, board);
+        this.clock = clock;
+        SearchSession session = game == null ? null : sessions.remove(game);
+        // the move is reported when gc isn't null
+        long[] gc = null;
+        Metrics total = null;
+        if (Metrics.ENABLED) {
+            for (RolloutPolicy rp : policies) {
+                rp.metrics.clear();
+            }
+            if (Metrics.OUT != null) {
+                gc = Metrics.gc();
+                total = new Metrics();
+            }
+        }
+
+        int[] known = config.book == null ? null : config.book.move(b, player);
+        if (known != null) {
+            lastStats = new SearchStats(mode, threads, 0, 0, 0, 0, System.nanoTime() - start, "book");
+            if (Metrics.ENABLED && gc != null)
+                report(game, board, player, known, gc, total);
+            return known;
+        }
+        if (board.empty() <= config.endgame) {
+            int[] won = solver.solve(b, player, clock);
+            if (won != null) {
+                lastStats = new SearchStats(mode, threads, 0, 0, 0, 0, System.nanoTime() - start, "solver");
+                if (Metrics.ENABLED && gc != null)
+                    report(game, board, player, won, gc, total);
+                return won;
+            }
+            SearchClock old = clock;
+            clock = old.rest();
+            this.clock = clock;
+            // a stop() may have come in between
+            if (old.stopped)
+                clock.stop();
+        }
+        return search(board, player, game, session, clock, start, gc, total);
+    }
+
+    // Grows the tree kept for game, whose position board is the one the opponent has to
+    // answer, until clock runs out, so that our next answer in the game starts from it.
+    // The pooled tree isn't kept between moves, so it has nothing to ponder.
+    void ponder(Board board, int player, String game, SearchClock clock) {
+        if (nodes != null)
+            return;
+        this.clock = clock;
+        search(board, player, game, sessions.remove(game), clock, System.nanoTime(), null, null);
+    }
+
+    // the move is reported when gc isn't null, see Metrics
+    private int[] search(Board board, int player, String game, SearchSession session, SearchClock clock,
+                         long start, long[] gc, Metrics total) {
+        long[] b = board.lines;
+        int[] ans;
+        long playouts;
+        long reused = 0;
+        // "proven" when the tree solved the position, see Mct
+        String source = "search";
+        for (TranspositionTable tt : tables) {
+            if (tt != null)
+                tt.clear();
+        }
+        if (nodes != null) {
+            nodes.reset(b, player);
+            if (nodes.moveCount[0] == 0)
+                return null;
+            nodes.search(b, policies[0], config, clock);
+            ans = nodes.bestChild();
+            playouts = nodes.games[0];
+            if (Metrics.ENABLED && total != null) {
+                for (int c = nodes.firstChild[0], last = c + nodes.expanded[0]; c < last; c++) {
+                    total.child(nodes.action[c], nodes.games[c], nodes.wins[c]);
+                }
+            }
+        } else if (mode != SearchMode.TREE_PARALLEL) {
+            Mct[] roots = new Mct[threads];
+            for (int k = 0; k < threads; k++) {
+                roots[k] = session != null ? session.reuse(k, b, player) : null;
+                if (roots[k] == null)
+                    roots[k] = new Mct(b, player);
+                reused += roots[k].games;
+            }
+            if (roots[0].choices.length == 0)
+                return null;
+            if (pool == null) {
+                roots[0].search(b, policies[0], tables[0], config, clock);
+                ans = roots[0].bestChild();
+            } else {
+                List<Future<Mct>> futures = new ArrayList<>(threads);
+                for (int k = 0; k < threads; k++) {
+                    Mct mct = roots[k];
+                    RolloutPolicy rp = policies[k];
+                    TranspositionTable tt = tables[k];
+                    futures.add(pool.submit(() -> {
+                        mct.search(b, rp, tt, config, clock);
+                        return mct;
+                    }));
+                }
+                join(futures);
+                ans = Mct.merge(Arrays.asList(roots), b.length);
+            }
+            playouts = -reused;
+            for (Mct root : roots) {
+                playouts += root.games;
+                if (root.proven != 0)
+                    source = "proven";
+                if (Metrics.ENABLED && total != null) {
+                    for (int c = 0; c < root.children.size(); c++) {
+                        total.child(root.choices[c], root.children.get(c).games, root.children.get(c).wins);
+                    }
+                }
+            }
+            if (game != null)
+                sessions.put(game, new SearchSession(b, roots, null));
+        } else {
+            ConcurrentMct mct = session != null ? session.reuseShared(b, player) : null;
+            if (mct == null)
+                mct = new ConcurrentMct(b, player);
+            if (mct.choices.length == 0)
+                return null;
+            reused = ConcurrentMct.games(mct.stats);
+            ConcurrentMct root = mct;
+            if (pool == null) {
+                // a lane of MctAgent may get a single thread
+                root.search(b, policies[0], config, clock);
+            } else {
+                List<Future<ConcurrentMct>> futures = new ArrayList<>(threads);
+                for (RolloutPolicy rp : policies) {
+                    futures.add(pool.submit(() -> {
+                        root.search(b, rp, config, clock);
+                        return root;
+                    }));
+                }
+                join(futures);
+            }
+            ans = mct.bestChild();
+            playouts = ConcurrentMct.games(mct.stats) - reused;
+            if (Metrics.ENABLED && total != null) {
+                for (int c = 0; c < mct.children.length(); c++) {
+                    ConcurrentMct child = mct.children.get(c);
+                    if (child != null)
+                        total.child(child.action, ConcurrentMct.games(child.stats), ConcurrentMct.wins(child.stats));
+                }
+            }
+            if (game != null)
+                sessions.put(game, new SearchSession(b, null, mct));
+        }
+        long lookups = 0;
+        long hits = 0;
+        for (TranspositionTable tt : tables) {
+            if (tt != null) {
+                lookups += tt.lookups;
+                hits += tt.hits;
+            }
+        }
+        lastStats = new SearchStats(mode, threads, playouts, reused, lookups, hits, System.nanoTime() - start, source);
+        if (Metrics.ENABLED && gc != null)
+            report(game, board, player, ans, gc, total);
+        return ans;
+    }
+
+    // writes the line of the move to Metrics.OUT, once the threads are done
+    private void report(String game, Board board, int player, int[] move, long[] gc, Metrics total) {
+        for (RolloutPolicy rp : policies) {
+            total.add(rp.metrics);
+        }
+        Metrics.OUT.println(total.json(game, board, player, lastStats, gc, move));
+    }
+
+    // ends the running search, which still answers with what it has
+    void stop() {
+        SearchClock c = clock;
+        if (c != null)
+            c.stop();
+    }
+
+    private static <T> List<T> join(List<Future<T>> futures) {
+        List<T> ans = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> f : futures) {
+                ans.add(f.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+        return ans;
+    }
+}
@@ -0,0 +1,12 @@
+package Domineering.Mcts;
+
+enum SearchMode {
+    // one tree, one thread
+    SEQUENTIAL,
+    // one thread, nodes taken from a preallocated NodePool
+    POOLED,
+    // one independent tree per thread, root children merged at the end
+    ROOT_PARALLEL,
+    // one shared tree, virtual loss keeps the threads apart
+    TREE_PARALLEL
+}
@@ -0,0 +1,62 @@
+package Domineering.Mcts;
+
+// Trees of one game kept between our moves, so the next search starts from the
+// subtree of the position the opponent actually left us.
+public class SearchSession {
+    // position of the stored roots
+    final long[] board;
+    final Mct[] roots;
+    final ConcurrentMct shared;
+
+    SearchSession(long[] board, Mct[] roots, ConcurrentMct shared) {
+        this.board = board.clone();
+        this.roots = roots;
+        this.shared = shared;
+    }
+
+    // cells filled since the stored position, null if b doesn't follow from it
+    long[] diff(long[] b) {
+        if (b.length != board.length)
+            return null;
+        long[] ans = new long[b.length];
+        for (int i = 0; i < b.length; i++) {
+            if ((b[i] & ~board[i]) != 0)
+                return null;
+            ans[i] = board[i] & ~b[i];
+        }
+        return ans;
+    }
+
+    static int filled(long[] diff) {
+        int ans = 0;
+        for (long line : diff) {
+            ans += Long.bitCount(line);
+        }
+        return ans;
+    }
+
+    // The subtree of roots[k] for the position b, detached from its parent, or null.
+    // The engines of MctAgent share the sessions but not their thread counts, so the
+    // session may have fewer roots than the engine reusing it has threads.
+    Mct reuse(int k, long[] b, int player) {
+        long[] diff = diff(b);
+        if (diff == null || roots == null || k >= roots.length)
+            return null;
+        Mct ans = roots[k].find(diff, filled(diff));
+        if (ans == null || ans.nextToMove != player)
+            return null;
+        ans.parent = null;
+        return ans;
+    }
+
+    ConcurrentMct reuseShared(long[] b, int player) {
+        long[] diff = diff(b);
+        if (diff == null || shared == null)
+            return null;
+        ConcurrentMct ans = shared.find(diff, filled(diff));
+        if (ans == null || ans.nextToMove != player)
+            return null;
+        ans.parent = null;
+        return ans;
+    }
+}
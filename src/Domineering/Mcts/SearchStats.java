@@ -0,0 +1,49 @@
+package Domineering.Mcts;
+
+public class SearchStats {
+    final SearchMode mode;
+    final int threads;
+    final long playouts;
+    // playouts inherited from the previous move's tree
+    final long reused;
+    // transposition table lookups while expanding, and the ones that found a node
+    final long lookups;
+    final long hits;
+    final long nanos;
+    // what answered: book, solver, search or proven, see Metrics
+    final String source;
+
+    SearchStats(SearchMode mode, int threads, long playouts, long reused, long lookups, long hits, long nanos,
+                String source) {
+        this.mode = mode;
+        this.threads = threads;
+        this.playouts = playouts;
+        this.reused = reused;
+        this.lookups = lookups;
+        this.hits = hits;
+        this.nanos = nanos;
+        this.source = source;
+    }
+
+    double playoutsPerSecond() {
+        return nanos == 0 ? 0 : playouts * 1e9 / nanos;
+    }
+
+    double hitRate() {
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchStats{" +
+                "mode=" + mode +
+                ", threads=" + threads +
+                ", playouts=" + playouts +
+                ", reused=" + reused +
+                ", tt hits=" + (int) (100 * hitRate()) + "%" +
+                ", ms=" + nanos / 1000000 +
+                ", source=" + source +
+                ", playouts/s=" + (long) playoutsPerSecond() +
+                '}';
+    }
+}
@@ -0,0 +1,210 @@
+package Domineering.Mcts;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+// Symmetries of a position. The game only depends on its empty cells, so they are taken
+// in the box bounding the empty cells rather than on the board, which makes them
+// independent of the board size and of where the cells are. The mirrors along x and y
+// keep the players, the transpose swaps them, V's dominoes becoming H's.
+// A symmetry is coded by MIRROR_X | MIRROR_Y | TRANSPOSE, applied in that order, on
+// boxes: the empty cells moved to line 0 and row 0 (see box).
+// An instance is the canonical form of a position, the image with the smallest hash,
+// to key the positions of the opening book.
+public class Symmetry {
+    static final int MIRROR_X = 1;
+    static final int MIRROR_Y = 2;
+    static final int TRANSPOSE = 4;
+
+    // first line and row of the box on the board, and its size
+    final int lo;
+    final int row;
+    final int width;
+    final int height;
+    // symmetry from the box to the canonical form
+    final int code;
+    final long key;
+
+    Symmetry(long[] board, int player) {
+        lo = first(board);
+        row = row(board);
+        long[] box = box(board);
+        width = box.length;
+        height = height(box);
+        int best = 0;
+        long min = 0;
+        // a transposed box needs a row per line
+        int symmetries = width <= Board.MAX_HEIGHT ? 8 : 4;
+        for (int s = 0; s < symmetries; s++) {
+            long k = hash(apply(box, s)) + ((s & TRANSPOSE) != 0 ? 1 - player : player);
+            if (s == 0 || k < min) {
+                min = k;
+                best = s;
+            }
+        }
+        code = best;
+        key = min;
+    }
+
+    // a move of player on the board as a move of the canonical form, both packed
+    int toCanonical(int move, int player) {
+        return move(RolloutPolicy.moveX(move) - lo, RolloutPolicy.moveY(move) - row, player, code, width, height);
+    }
+
+    // a move of the canonical form, packed, as a move of player on the board,
+    // null if it doesn't fit in the box
+    int[] fromCanonical(int u, int player) {
+        boolean t = (code & TRANSPOSE) != 0;
+        int p = t ? 1 - player : player;
+        int x = RolloutPolicy.moveX(u);
+        int y = RolloutPolicy.moveY(u);
+        if (x + p >= (t ? height : width) || y + 1 - p >= (t ? width : height))
+            return null;
+        int m = Math.min(inverse(x, y, code, width, height), inverse(x + p, y + 1 - p, code, width, height));
+        return new int[]{RolloutPolicy.moveX(m) + lo, RolloutPolicy.moveY(m) + row};
+    }
+
+    // Keeps one move of player out of each group of moves that the mirrors of the
+    // position map onto each other, the first one met, so the search doesn't split
+    // its playouts over equivalent moves. moves is returned itself when no mirror
+    // maps the position onto itself, which is the case on most boards but early ones.
+    static short[] reduce(short[] moves, long[] board, int player) {
+        long[] box = box(board);
+        int mirrors = 0;
+        for (int s = MIRROR_X; s <= (MIRROR_X | MIRROR_Y); s++) {
+            if (Arrays.equals(apply(box, s), box))
+                mirrors |= 1 << s;
+        }
+        if (mirrors == 0)
+            return moves;
+        int lo = first(board);
+        int row = row(board);
+        int h = height(box);
+        short[] ans = new short[moves.length];
+        int size = 0;
+        Set<Integer> images = new HashSet<>();
+        for (short m : moves) {
+            int x = RolloutPolicy.moveX(m) - lo;
+            int y = RolloutPolicy.moveY(m) - row;
+            if (images.contains(move(x, y, player, 0, box.length, h)))
+                continue;
+            ans[size++] = m;
+            for (int s = MIRROR_X; s <= (MIRROR_X | MIRROR_Y); s++) {
+                if ((mirrors & 1 << s) != 0)
+                    images.add(move(x, y, player, s, box.length, h));
+            }
+        }
+        return Arrays.copyOf(ans, size);
+    }
+
+    // hash of the empty cells of board, the same for its mirrors, to key the shapes of regions
+    static long shape(long[] board) {
+        long[] box = box(board);
+        long ans = 0;
+        for (int s = 0; s <= (MIRROR_X | MIRROR_Y); s++) {
+            long h = hash(apply(box, s));
+            ans = s == 0 ? h : Math.min(ans, h);
+        }
+        return ans;
+    }
+
+    static long hash(long[] box) {
+        long ans = 0;
+        for (long line : box) {
+            ans = (ans + line) * 0x9E3779B97F4A7C15L;
+        }
+        return ans;
+    }
+
+    // the empty cells of board moved to the origin, in an array as wide as they are
+    static long[] box(long[] board) {
+        int lo = first(board);
+        int hi = board.length - 1;
+        while (hi >= lo && board[hi] == 0) {
+            --hi;
+        }
+        int row = row(board);
+        long[] ans = new long[Math.max(0, hi - lo + 1)];
+        for (int i = 0; i < ans.length; i++) {
+            ans[i] = board[lo + i] >>> row;
+        }
+        return ans;
+    }
+
+    // first line with an empty cell
+    static int first(long[] board) {
+        int ans = 0;
+        while (ans < board.length && board[ans] == 0) {
+            ++ans;
+        }
+        return ans;
+    }
+
+    // first row with an empty cell
+    static int row(long[] board) {
+        long all = 0;
+        for (long line : board) {
+            all |= line;
+        }
+        return all == 0 ? 0 : Long.numberOfTrailingZeros(all);
+    }
+
+    // rows of a box
+    static int height(long[] box) {
+        long all = 0;
+        for (long line : box) {
+            all |= line;
+        }
+        return 64 - Long.numberOfLeadingZeros(all);
+    }
+
+    static long[] apply(long[] box, int s) {
+        int h = height(box);
+        long[] ans = new long[box.length];
+        for (int i = 0; i < box.length; i++) {
+            long line = box[(s & MIRROR_X) != 0 ? box.length - 1 - i : i];
+            ans[i] = (s & MIRROR_Y) != 0 ? Long.reverse(line) >>> (64 - h) : line;
+        }
+        return (s & TRANSPOSE) != 0 ? transpose(ans, h) : ans;
+    }
+
+    static long[] transpose(long[] box, int h) {
+        long[] ans = new long[h];
+        for (int i = 0; i < box.length; i++) {
+            for (long line = box[i]; line != 0; line &= line - 1) {
+                ans[Long.numberOfTrailingZeros(line)] |= 1L << i;
+            }
+        }
+        return ans;
+    }
+
+    // the move of player anchored at (x, y) in a box of w lines and h rows, as a move of
+    // the box transformed by s, packed; the anchor is the smaller of its cells either way
+    static int move(int x, int y, int player, int s, int w, int h) {
+        return Math.min(cell(x, y, s, w, h), cell(x + player, y + 1 - player, s, w, h));
+    }
+
+    // the cell (x, y) of a box of w lines and h rows in the box transformed by s, packed
+    static int cell(int x, int y, int s, int w, int h) {
+        if ((s & MIRROR_X) != 0)
+            x = w - 1 - x;
+        if ((s & MIRROR_Y) != 0)
+            y = h - 1 - y;
+        return (s & TRANSPOSE) != 0 ? RolloutPolicy.move(y, x) : RolloutPolicy.move(x, y);
+    }
+
+    // the cell (x, y) of the box transformed by s in the box of w lines and h rows, packed
+    static int inverse(int x, int y, int s, int w, int h) {
+        if ((s & TRANSPOSE) != 0) {
+            int t = x;
+            x = y;
+            y = t;
+        }
+        if ((s & MIRROR_Y) != 0)
+            y = h - 1 - y;
+        if ((s & MIRROR_X) != 0)
+            x = w - 1 - x;
+        return RolloutPolicy.move(x, y);
+    }
+}
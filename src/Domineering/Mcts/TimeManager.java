@@ -0,0 +1,38 @@
+package Domineering.Mcts;
+
+// Turns the time the server grants for a message into a budget, see Client:
+// 0.5 s per board but at least 1 s per message, minus the time the message spends
+// on the wire.
+public class TimeManager {
+    static final long MESSAGE = 1000;
+    static final long PER_BOARD = 500;
+    // share of the granted time we dare to use, and a reserve for parsing, GC and the answer
+    static final double SAFETY = 0.8;
+    static final long RESERVE = 50;
+    // Round trip of the name/Welcome handshake of the last connect (nanoseconds), the one
+    // exchange we can time: the server measures the latency with Ping/Pong but doesn't
+    // tell us or answer our Pong, and its next request also waits on the opponents. So
+    // it is fixed for a connection, lag coming up during a game being left to SAFETY.
+    long rtt = 0;
+
+    void handshake(long nanos) {
+        rtt = nanos;
+    }
+
+    // milliseconds to answer all the boards of a message
+    long messageBudget(int boards) {
+        long message = Math.max(MESSAGE, PER_BOARD * boards) - rtt / 1000000;
+        return Math.max(1, (long) (message * SAFETY - RESERVE));
+    }
+
+    // share of the budget to spend on a position: all of it in the midgame, where a
+    // move decides the most, about 60% on an empty or nearly full board
+    static double phase(Board board) {
+        double e = board.empty() / (double) board.cells();
+        return 0.6 + 0.4 * Math.min(1, 4 * e * (1 - e));
+    }
+
+    static SearchClock clock(long budget, Board board) {
+        return new SearchClock((long) (budget * 1000000 * phase(board)));
+    }
+}
@@ -0,0 +1,51 @@
+package Domineering.Mcts;
+
+import java.util.Arrays;
+
+// Bounded map from Zobrist hashes to Mct nodes. Every hash has a bucket of two slots,
+// a new node takes a free slot or else replaces the least visited of the two.
+public class TranspositionTable {
+    final long[] keys;
+    final Mct[] nodes;
+    final int mask;
+    long lookups = 0;
+    long hits = 0;
+
+    // size is rounded down to a power of two
+    TranspositionTable(int size) {
+        size = Integer.highestOneBit(Math.max(size, 2));
+        keys = new long[size];
+        nodes = new Mct[size];
+        mask = size - 2;
+    }
+
+    Mct get(long hash) {
+        ++lookups;
+        int i = (int) hash & mask;
+        Mct ans = nodes[i] != null && keys[i] == hash ? nodes[i]
+                : nodes[i + 1] != null && keys[i + 1] == hash ? nodes[i + 1] : null;
+        if (ans != null)
+            ++hits;
+        return ans;
+    }
+
+    void put(long hash, Mct node) {
+        int i = (int) hash & mask;
+        if (nodes[i] != null && keys[i] != hash
+                && (nodes[i + 1] == null || keys[i + 1] == hash || nodes[i + 1].games < nodes[i].games))
+            ++i;
+        keys[i] = hash;
+        nodes[i] = node;
+    }
+
+    // drops every node and the statistics
+    void clear() {
+        Arrays.fill(nodes, null);
+        lookups = 0;
+        hits = 0;
+    }
+
+    double hitRate() {
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+}
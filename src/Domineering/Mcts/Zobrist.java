@@ -0,0 +1,40 @@
+package Domineering.Mcts;
+
+import java.util.Random;
+
+// Random keys of the cells and of the side to move, the hash of a position is the xor of
+// the keys of its empty cells. A move flips two cells either way, and this needs no board size.
+public class Zobrist {
+    static final int MAX = 64;
+    static final long[] CELLS = new long[MAX * MAX];
+    // xor-ed in for every move, so it tracks the side to move
+    static final long SIDE;
+
+    static {
+        Random r = new Random(0x5EEDL);
+        for (int i = 0; i < CELLS.length; i++) {
+            CELLS[i] = r.nextLong();
+        }
+        SIDE = r.nextLong();
+    }
+
+    static long cell(int i, int j) {
+        return CELLS[i * MAX + j];
+    }
+
+    static long hash(long[] board, int player) {
+        long ans = player == 0 ? 0 : SIDE;
+        for (int i = 0; i < board.length; i++) {
+            for (long line = board[i]; line != 0; line &= line - 1) {
+                ans ^= cell(i, Long.numberOfTrailingZeros(line));
+            }
+        }
+        return ans;
+    }
+
+    // change of the hash when player plays move, packed with RolloutPolicy.move, which
+    // is the index of its anchor here
+    static long move(int move, int player) {
+        return CELLS[move] ^ CELLS[move + RolloutPolicy.other(player)] ^ SIDE;
+    }
+}